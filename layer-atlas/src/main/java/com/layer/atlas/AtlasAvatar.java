@@ -2,25 +2,29 @@ package com.layer.atlas;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Paint;
-import android.graphics.Rect;
 import android.graphics.RectF;
-import android.graphics.drawable.Drawable;
+import android.graphics.Shader;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
 
+import com.layer.atlas.util.AvatarClusterCache;
+import com.layer.atlas.util.AvatarImageLoader;
+import com.layer.atlas.util.AvatarInitialsCache;
 import com.layer.atlas.util.AvatarStyle;
 import com.layer.atlas.util.Util;
-import com.layer.atlas.util.picasso.transformations.CircleTransform;
 import com.layer.sdk.messaging.Identity;
 import com.squareup.picasso.Picasso;
-import com.squareup.picasso.Target;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -33,14 +37,12 @@ import java.util.concurrent.atomic.AtomicLong;
 public class AtlasAvatar extends View {
     public static final String TAG = AtlasAvatar.class.getSimpleName();
 
-    private final static CircleTransform SINGLE_TRANSFORM = new CircleTransform(TAG + ".single");
-    private final static CircleTransform MULTI_TRANSFORM = new CircleTransform(TAG + ".multi");
-
     private static final Paint PAINT_TRANSPARENT = new Paint();
     private static final Paint PAINT_BITMAP = new Paint();
 
     private final Paint mPaintInitials = new Paint();
     private final Paint mPaintBorder = new Paint();
+    private final Paint mPaintImage = new Paint();
     private final Paint mPaintBackground = new Paint();
 
     // TODO: make these styleable
@@ -56,14 +58,30 @@ public class AtlasAvatar extends View {
         PAINT_BITMAP.setAntiAlias(true);
     }
 
-    private Picasso mPicasso;
+    private AvatarImageLoader mLoader;
     private Set<Identity> mParticipants = new LinkedHashSet<>();
+    private List<AvatarKey> mAvatarKeys;
+
+    // Initials and Picasso image targets by Identity or AvatarKey
+    private final Map<Object, ImageTarget> mImageTargets = new HashMap<>();
+    private final Map<Object, String> mInitials = new HashMap<>();
+
+    // AvatarInitialsCache keys set in setClusterSizes(), so onDraw() builds no strings
+    private final Map<Object, String> mInitialsKeys = new HashMap<>();
 
-    // Initials and Picasso image targets by user ID
-    private final Map<Identity, ImageTarget> mImageTargets = new HashMap<>();
-    private final Map<Identity, String> mInitials = new HashMap<>();
+    // Names each Identity's initials were derived from, to skip recomputing unchanged initials
+    private final Map<Object, String[]> mInitialsSources = new HashMap<>();
     private final List<ImageTarget> mPendingLoads = new ArrayList<ImageTarget>();
 
+    // Avatars sorted by initials and URL, so equal participant sets draw and cache identically
+    private final List<Object> mDrawOrder = new ArrayList<>();
+
+    // Rendered cluster shared through AvatarClusterCache, held only while attached
+    private String mClusterKey;
+    private Bitmap mClusterBitmap;
+    private int mClusterWidth;
+    private int mClusterHeight;
+
     // Sizing set in setClusterSizes() and used in onDraw()
     private float mOuterRadius;
     private float mInnerRadius;
@@ -73,8 +91,12 @@ public class AtlasAvatar extends View {
     private float mDeltaY;
     private float mTextSize;
 
-    private Rect mRect = new Rect();
     private RectF mContentRect = new RectF();
+    private RectF mBorderRect = new RectF();
+    private final Matrix mShaderMatrix = new Matrix();
+
+    // Negative for circular avatars
+    private float mCornerRadius = -1f;
 
     public AtlasAvatar(Context context) {
         super(context);
@@ -89,11 +111,13 @@ public class AtlasAvatar extends View {
     }
 
     public AtlasAvatar init(Picasso picasso) {
-        mPicasso = picasso;
+        mLoader = AvatarImageLoader.getInstance(picasso);
 
         mPaintInitials.setAntiAlias(true);
         mPaintInitials.setSubpixelText(true);
         mPaintBorder.setAntiAlias(true);
+        mPaintImage.setAntiAlias(true);
+        mPaintImage.setFilterBitmap(true);
         mPaintBackground.setAntiAlias(true);
 
         mPaintBackground.setColor(getResources().getColor(R.color.atlas_avatar_background));
@@ -108,10 +132,29 @@ public class AtlasAvatar extends View {
         mPaintBorder.setColor(avatarStyle.getAvatarBorderColor());
         mPaintInitials.setColor(avatarStyle.getAvatarTextColor());
         mPaintInitials.setTypeface(avatarStyle.getAvatarTextTypeface());
+        // The cluster key includes the style
+        setClusterSizes();
+        invalidate();
+        return this;
+    }
+
+    /**
+     * Draws avatars as rounded rectangles instead of circles.  Images are clipped at draw time, so
+     * changing the shape does not reload them.
+     *
+     * @param cornerRadius Corner radius in pixels, or a negative value to draw circles.
+     * @return This AtlasAvatar.
+     */
+    public AtlasAvatar setCornerRadius(float cornerRadius) {
+        mCornerRadius = cornerRadius;
+        // The cluster key includes the shape
+        setClusterSizes();
+        invalidate();
         return this;
     }
 
     public AtlasAvatar setParticipants(Identity... participants) {
+        mAvatarKeys = null;
         mParticipants.clear();
         mParticipants.addAll(Arrays.asList(participants));
         update();
@@ -122,57 +165,58 @@ public class AtlasAvatar extends View {
      * Should be called from UI thread.
      */
     public AtlasAvatar setParticipants(Set<Identity> participants) {
+        mAvatarKeys = null;
         mParticipants.clear();
         mParticipants.addAll(participants);
         update();
         return this;
     }
 
+    /**
+     * Displays avatars from previously captured AvatarKeys instead of live Identities, for example
+     * when rendering a persisted snapshot before Identities are available.  Should be called from
+     * UI thread.
+     *
+     * @param avatarKeys Keys to display, as returned by {@link AvatarKey#fromParticipants(Set)}.
+     * @return This AtlasAvatar.
+     */
+    public AtlasAvatar setAvatarKeys(List<AvatarKey> avatarKeys) {
+        mParticipants.clear();
+        mAvatarKeys = new ArrayList<>(avatarKeys.subList(0, Math.min(MAX_AVATARS, avatarKeys.size())));
+        update();
+        return this;
+    }
+
     public Set<Identity> getParticipants() {
         return new LinkedHashSet<>(mParticipants);
     }
 
     private void update() {
-        // Limit to MAX_AVATARS valid avatars, prioritizing participants with avatars.
-        if (mParticipants.size() > MAX_AVATARS) {
-            Queue<Identity> withAvatars = new LinkedList<>();
-            Queue<Identity> withoutAvatars = new LinkedList<>();
-            for (Identity participant : mParticipants) {
-                if (participant == null) continue;
-                if (!TextUtils.isEmpty(participant.getAvatarImageUrl())) {
-                    withAvatars.add(participant);
-                } else {
-                    withoutAvatars.add(participant);
-                }
-            }
-
-            mParticipants = new LinkedHashSet<>();
-            int numWithout = Math.min(MAX_AVATARS - withAvatars.size(), withoutAvatars.size());
-            for (int i = 0; i < numWithout; i++) {
-                mParticipants.add(withoutAvatars.remove());
-            }
-            int numWith = Math.min(MAX_AVATARS, withAvatars.size());
-            for (int i = 0; i < numWith; i++) {
-                mParticipants.add(withAvatars.remove());
-            }
+        Set<Object> keys = new LinkedHashSet<>();
+        if (mAvatarKeys != null) {
+            keys.addAll(mAvatarKeys);
+        } else {
+            mParticipants = limitParticipants(mParticipants);
+            keys.addAll(mParticipants);
         }
 
-        Diff diff = diff(mInitials.keySet(), mParticipants);
+        Diff diff = diff(mInitials.keySet(), keys);
         List<ImageTarget> toLoad = new ArrayList<>();
 
         List<ImageTarget> recyclableTargets = new ArrayList<ImageTarget>();
-        for (Identity removed : diff.removed) {
+        for (Object removed : diff.removed) {
             mInitials.remove(removed);
+            mInitialsSources.remove(removed);
             ImageTarget target = mImageTargets.remove(removed);
             if (target != null) {
-                mPicasso.cancelRequest(target);
+                mLoader.cancel(target);
                 recyclableTargets.add(target);
             }
         }
 
-        for (Identity added : diff.added) {
+        for (Object added : diff.added) {
             if (added == null) return;
-            mInitials.put(added, Util.getInitials(added));
+            updateInitials(added);
 
             final ImageTarget target;
             if (recyclableTargets.isEmpty()) {
@@ -180,30 +224,110 @@ public class AtlasAvatar extends View {
             } else {
                 target = recyclableTargets.remove(0);
             }
-            target.setUrl(added.getAvatarImageUrl());
+            target.setUrl(getAvatarImageUrl(added));
             mImageTargets.put(added, target);
             toLoad.add(target);
         }
 
-        // Cancel existing in case the size or anything else changed.
-        // TODO: make caching intelligent wrt sizing
-        for (Identity existing : diff.existing) {
+        // Reload existing only if the URL changed; setClusterSizes() reloads on size changes
+        for (Object existing : diff.existing) {
             if (existing == null) continue;
-            mInitials.put(existing, Util.getInitials(existing));
+            updateInitials(existing);
 
             ImageTarget existingTarget = mImageTargets.get(existing);
-            mPicasso.cancelRequest(existingTarget);
+            String url = getAvatarImageUrl(existing);
+            if (TextUtils.equals(url, existingTarget.getUrl())) continue;
+            mLoader.cancel(existingTarget);
+            existingTarget.setUrl(url);
             toLoad.add(existingTarget);
         }
         for (ImageTarget target : mPendingLoads) {
-            mPicasso.cancelRequest(target);
+            mLoader.cancel(target);
         }
         mPendingLoads.clear();
         mPendingLoads.addAll(toLoad);
 
+        mDrawOrder.clear();
+        mDrawOrder.addAll(mInitials.keySet());
+        Collections.sort(mDrawOrder, new Comparator<Object>() {
+            @Override
+            public int compare(Object lhs, Object rhs) {
+                return getAvatarDescriptor(lhs).compareTo(getAvatarDescriptor(rhs));
+            }
+        });
+
         setClusterSizes();
     }
 
+    /**
+     * Returns a string identifying how the given avatar renders: its initials and image URL.
+     */
+    private String getAvatarDescriptor(Object key) {
+        ImageTarget target = mImageTargets.get(key);
+        String url = (target == null) ? null : target.getUrl();
+        return mInitials.get(key) + '\u0000' + (url == null ? "" : url.trim());
+    }
+
+    /**
+     * Computes the initials for the given avatar, unless its names are unchanged since the last
+     * computation.  AvatarKeys are immutable, so their initials never change.
+     */
+    private void updateInitials(Object key) {
+        if (key instanceof AvatarKey) {
+            if (!mInitials.containsKey(key)) mInitials.put(key, getInitials(key));
+            return;
+        }
+        Identity identity = (Identity) key;
+        String[] names = mInitialsSources.get(key);
+        String first = identity.getFirstName();
+        String last = identity.getLastName();
+        String display = identity.getDisplayName();
+        if (names != null && TextUtils.equals(names[0], first) && TextUtils.equals(names[1], last)
+                && TextUtils.equals(names[2], display)) {
+            return;
+        }
+        mInitialsSources.put(key, new String[]{first, last, display});
+        mInitials.put(key, getInitials(key));
+    }
+
+    /**
+     * Limits the given participants to MAX_AVATARS, prioritizing participants with avatars.
+     */
+    private static Set<Identity> limitParticipants(Set<Identity> participants) {
+        if (participants.size() <= MAX_AVATARS) return participants;
+        Queue<Identity> withAvatars = new LinkedList<>();
+        Queue<Identity> withoutAvatars = new LinkedList<>();
+        for (Identity participant : participants) {
+            if (participant == null) continue;
+            if (!TextUtils.isEmpty(participant.getAvatarImageUrl())) {
+                withAvatars.add(participant);
+            } else {
+                withoutAvatars.add(participant);
+            }
+        }
+
+        Set<Identity> limited = new LinkedHashSet<>();
+        int numWithout = Math.min(MAX_AVATARS - withAvatars.size(), withoutAvatars.size());
+        for (int i = 0; i < numWithout; i++) {
+            limited.add(withoutAvatars.remove());
+        }
+        int numWith = Math.min(MAX_AVATARS, withAvatars.size());
+        for (int i = 0; i < numWith; i++) {
+            limited.add(withAvatars.remove());
+        }
+        return limited;
+    }
+
+    private static String getInitials(Object key) {
+        if (key instanceof AvatarKey) return ((AvatarKey) key).getInitials();
+        return Util.getInitials((Identity) key);
+    }
+
+    private static String getAvatarImageUrl(Object key) {
+        if (key instanceof AvatarKey) return ((AvatarKey) key).getAvatarImageUrl();
+        return ((Identity) key).getAvatarImageUrl();
+    }
+
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
@@ -211,79 +335,226 @@ public class AtlasAvatar extends View {
         setClusterSizes();
     }
 
+    /**
+     * Warms the image cache for the given participants at the sizes this avatar would request for
+     * them, without displaying them.  Loads run at lower priority than visible avatars.
+     *
+     * @param participants Participants another row will display in an avatar of this size.
+     */
+    public void prefetch(Set<Identity> participants) {
+        if (mLoader == null) return;
+        Set<Identity> limited = limitParticipants(participants);
+        int size = getImageSize(limited.size());
+        if (size <= 0) return;
+        for (Identity participant : limited) {
+            if (participant == null) continue;
+            String url = participant.getAvatarImageUrl();
+            if (url == null || url.trim().length() == 0) continue;
+            mLoader.prefetch(url.trim(), size);
+        }
+    }
+
+    /**
+     * Returns the pixel size of the images requested for a cluster of the given size, or 0 if
+     * this view has no layout params yet.
+     */
+    private int getImageSize(int avatarCount) {
+        ClusterGeometry geometry = measureCluster(avatarCount);
+        return geometry == null ? 0 : geometry.mImageSize;
+    }
+
+    /**
+     * Measures a cluster of the given size against this view's layout params, or returns `null`
+     * if there is nothing to measure.
+     */
+    private ClusterGeometry measureCluster(int avatarCount) {
+        ViewGroup.LayoutParams params = getLayoutParams();
+        if (avatarCount == 0 || params == null) return null;
+        float density = getContext().getResources().getDisplayMetrics().density;
+        return new ClusterGeometry(avatarCount,
+                params.width - (getPaddingLeft() + getPaddingRight()),
+                params.height - (getPaddingTop() + getPaddingBottom()),
+                density * BORDER_SIZE_DP);
+    }
+
     private boolean setClusterSizes() {
         int avatarCount = mInitials.size();
-        if (avatarCount == 0) return false;
         ViewGroup.LayoutParams params = getLayoutParams();
-        if (params == null) return false;
-        boolean hasBorder = (avatarCount != 1);
-
-        int drawableWidth = params.width - (getPaddingLeft() + getPaddingRight());
-        int drawableHeight = params.height - (getPaddingTop() + getPaddingBottom());
-        float dimension = Math.min(drawableWidth, drawableHeight);
-        float density = getContext().getResources().getDisplayMetrics().density;
-        float fraction = (avatarCount > 1) ? MULTI_FRACTION : 1;
+        ClusterGeometry geometry = measureCluster(avatarCount);
+        if (geometry == null) {
+            mInitialsKeys.clear();
+            setClusterKey(0, 0);
+            return false;
+        }
 
-        mOuterRadius = fraction * dimension / 2f;
-        mInnerRadius = mOuterRadius - (density * BORDER_SIZE_DP);
+        mOuterRadius = geometry.mOuterRadius;
+        mInnerRadius = geometry.mInnerRadius;
         mTextSize = mInnerRadius * 4f / 5f;
         mCenterX = getPaddingLeft() + mOuterRadius;
         mCenterY = getPaddingTop() + mOuterRadius;
 
-        float outerMultiSize = fraction * dimension;
-        mDeltaX = (drawableWidth - outerMultiSize) / (avatarCount - 1);
-        mDeltaY = (drawableHeight - outerMultiSize) / (avatarCount - 1);
+        float outerMultiSize = 2f * mOuterRadius;
+        mDeltaX = (geometry.mDrawableWidth - outerMultiSize) / (avatarCount - 1);
+        mDeltaY = (geometry.mDrawableHeight - outerMultiSize) / (avatarCount - 1);
+
+        mInitialsKeys.clear();
+        int initialsSize = getInitialsSize(avatarCount);
+        for (Object avatar : mDrawOrder) {
+            mInitialsKeys.put(avatar, AvatarInitialsCache.getKey(mInitials.get(avatar), initialsSize,
+                    mCornerRadius, mTextSize, mPaintInitials.getTypeface(), mPaintInitials.getColor(),
+                    mPaintBackground.getColor()));
+        }
+
+        // Another view already rendered this cluster; loads stay pending in case it is evicted
+        setClusterKey(params.width, params.height);
+        if (mClusterKey != null && AvatarClusterCache.getInstance().contains(mClusterKey)) {
+            return true;
+        }
 
         synchronized (mPendingLoads) {
+            // Reload images requested at a different size; matching ones are kept or in flight
+            int size = geometry.mImageSize;
+            for (ImageTarget imageTarget : mImageTargets.values()) {
+                if (imageTarget.getSize() != size && !mPendingLoads.contains(imageTarget)) {
+                    mPendingLoads.add(imageTarget);
+                }
+            }
             if (!mPendingLoads.isEmpty()) {
-                int size = Math.round(hasBorder ? (mInnerRadius * 2f) : (mOuterRadius * 2f));
                 for (ImageTarget imageTarget : mPendingLoads) {
-                    String targetUrl = imageTarget.getUrl();
-                    // Handle empty paths just like null paths. This ensures empty paths will go
-                    // through the normal Picasso flow and the bitmap is set.
-                    if (targetUrl != null && targetUrl.trim().length() == 0) {
-                        targetUrl = null;
-                    }
-                    mPicasso.load(targetUrl)
-                            .tag(AtlasAvatar.TAG).noPlaceholder().noFade()
-                            .centerCrop().resize(size, size)
-                            .transform((avatarCount > 1) ? MULTI_TRANSFORM : SINGLE_TRANSFORM)
-                            .into(imageTarget);
+                    // Handle empty paths just like null paths: draw initials.
+                    imageTarget.prepareLoad(size);
+                    if (!imageTarget.hasUrl()) continue;
+                    mLoader.load(imageTarget.getUrl().trim(), size, imageTarget);
                 }
                 mPendingLoads.clear();
             }
         }
+        renderCluster();
         return true;
     }
 
+    private void setClusterKey(int width, int height) {
+        String key = null;
+        if (width > 0 && height > 0) {
+            StringBuilder builder = new StringBuilder()
+                    .append(width).append('x').append(height)
+                    .append(':').append(getPaddingLeft()).append(',').append(getPaddingTop())
+                    .append(',').append(getPaddingRight()).append(',').append(getPaddingBottom())
+                    .append(':').append(mPaintBackground.getColor())
+                    .append(',').append(mPaintBorder.getColor())
+                    .append(',').append(mPaintInitials.getColor())
+                    .append(',').append(System.identityHashCode(mPaintInitials.getTypeface()))
+                    .append(',').append(mCornerRadius);
+            for (Object avatar : mDrawOrder) {
+                builder.append('\u0001').append(getAvatarDescriptor(avatar));
+            }
+            key = builder.toString();
+        }
+        if (key != null && key.equals(mClusterKey)) return;
+        releaseClusterBitmap();
+        mClusterKey = key;
+        mClusterWidth = width;
+        mClusterHeight = height;
+    }
+
+    /**
+     * Renders the cluster into the shared cache once every image has loaded.  Clusters with
+     * failed loads are not cached, so they retry on the next bind.
+     */
+    private void renderCluster() {
+        if (mClusterKey == null || mDrawOrder.isEmpty() || !mPendingLoads.isEmpty()) return;
+        AvatarClusterCache cache = AvatarClusterCache.getInstance();
+        if (cache.contains(mClusterKey)) return;
+        for (ImageTarget target : mImageTargets.values()) {
+            if (target.hasUrl() && !target.isLoaded()) return;
+        }
+        Bitmap bitmap = cache.obtain(mClusterWidth, mClusterHeight);
+        drawAvatars(new Canvas(bitmap));
+        cache.put(mClusterKey, bitmap);
+    }
+
+    private void releaseClusterBitmap() {
+        if (mClusterBitmap == null) return;
+        AvatarClusterCache.getInstance().release(mClusterBitmap);
+        mClusterBitmap = null;
+    }
+
+    private void onImageLoaded() {
+        renderCluster();
+        invalidate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseClusterBitmap();
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         // Clear canvas
-        int avatarCount = mInitials.size();
         canvas.drawRect(0f, 0f, canvas.getWidth(), canvas.getHeight(), PAINT_TRANSPARENT);
+
+        if (mClusterBitmap == null && mClusterKey != null) {
+            mClusterBitmap = AvatarClusterCache.getInstance().acquire(mClusterKey);
+            if (mClusterBitmap == null && !mPendingLoads.isEmpty()) {
+                // Evicted after this view skipped its own loads
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        setClusterSizes();
+                    }
+                });
+            }
+        }
+        if (mClusterBitmap != null) {
+            canvas.drawBitmap(mClusterBitmap, 0f, 0f, PAINT_BITMAP);
+            return;
+        }
+        drawAvatars(canvas);
+    }
+
+    /**
+     * Returns the diameter in pixels of the initials drawn for each of `avatarCount` avatars.
+     */
+    private int getInitialsSize(int avatarCount) {
+        float contentRadius = (avatarCount != 1) ? mInnerRadius : mOuterRadius;
+        return Math.max(1, Math.round(contentRadius * 2f));
+    }
+
+    private void drawAvatars(Canvas canvas) {
+        int avatarCount = mDrawOrder.size();
         if (avatarCount == 0) return;
         boolean hasBorder = (avatarCount != 1);
         float contentRadius = hasBorder ? mInnerRadius : mOuterRadius;
+        int initialsSize = getInitialsSize(avatarCount);
 
         // Draw avatar cluster
         float cx = mCenterX;
         float cy = mCenterY;
         mContentRect.set(cx - contentRadius, cy - contentRadius, cx + contentRadius, cy + contentRadius);
-        for (Map.Entry<Identity, String> entry : mInitials.entrySet()) {
+        for (Object avatar : mDrawOrder) {
             // Border / background
-            if (hasBorder) canvas.drawCircle(cx, cy, mOuterRadius, mPaintBorder);
-
-            // Initials or bitmap
-            ImageTarget imageTarget = mImageTargets.get(entry.getKey());
-            Bitmap bitmap = (imageTarget == null) ? null : imageTarget.getBitmap();
-            if (bitmap == null) {
-                String initials = entry.getValue();
-                mPaintInitials.setTextSize(mTextSize);
-                mPaintInitials.getTextBounds(initials, 0, initials.length(), mRect);
-                canvas.drawCircle(cx, cy, contentRadius, mPaintBackground);
-                canvas.drawText(initials, cx - mRect.centerX(), cy - mRect.centerY() - 1f, mPaintInitials);
-            } else {
-                canvas.drawBitmap(bitmap, mContentRect.left, mContentRect.top, PAINT_BITMAP);
+            if (hasBorder) {
+                mBorderRect.set(cx - mOuterRadius, cy - mOuterRadius, cx + mOuterRadius, cy + mOuterRadius);
+                drawShape(canvas, mBorderRect, mOuterRadius - contentRadius, mPaintBorder);
+            }
+
+            // Initials or image, clipped to the avatar shape by its shader
+            ImageTarget imageTarget = mImageTargets.get(avatar);
+            BitmapShader shader = (imageTarget == null) ? null : imageTarget.getShader();
+            String initialsKey = mInitialsKeys.get(avatar);
+            if (shader != null) {
+                mShaderMatrix.setTranslate(mContentRect.left, mContentRect.top);
+                shader.setLocalMatrix(mShaderMatrix);
+                mPaintImage.setShader(shader);
+                drawShape(canvas, mContentRect, 0f, mPaintImage);
+                mPaintImage.setShader(null);
+            } else if (initialsKey != null) {
+                Bitmap initials = AvatarInitialsCache.getInstance().get(initialsKey, mInitials.get(avatar),
+                        initialsSize, mCornerRadius, mTextSize, mPaintInitials.getTypeface(),
+                        mPaintInitials.getColor(), mPaintBackground.getColor());
+                canvas.drawBitmap(initials, mContentRect.left, mContentRect.top, PAINT_BITMAP);
             }
 
             // Translate for next avatar
@@ -293,12 +564,29 @@ public class AtlasAvatar extends View {
         }
     }
 
-    private static class ImageTarget implements Target {
+    /**
+     * Draws a circle or rounded rectangle filling the given square.
+     *
+     * @param outset Amount the square extends beyond the content, added to the corner radius so
+     *               borders stay concentric.
+     */
+    private void drawShape(Canvas canvas, RectF rect, float outset, Paint paint) {
+        if (mCornerRadius < 0f) {
+            canvas.drawOval(rect, paint);
+        } else {
+            float radius = mCornerRadius + outset;
+            canvas.drawRoundRect(rect, radius, radius, paint);
+        }
+    }
+
+    private static class ImageTarget implements AvatarImageLoader.Listener {
         private final static AtomicLong sCounter = new AtomicLong(0);
         private final long mId;
         private final AtlasAvatar mCluster;
         private String mUrl;
-        private Bitmap mBitmap;
+        private BitmapShader mShader;
+        private boolean mLoaded;
+        private int mSize;
 
         public ImageTarget(AtlasAvatar cluster) {
             mId = sCounter.incrementAndGet();
@@ -307,6 +595,9 @@ public class AtlasAvatar extends View {
 
         public ImageTarget setUrl(String url) {
             mUrl = url;
+            mShader = null;
+            mLoaded = false;
+            mSize = 0;
             return this;
         }
 
@@ -314,25 +605,51 @@ public class AtlasAvatar extends View {
             return mUrl;
         }
 
-        @Override
-        public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
-            mCluster.invalidate();
-            mBitmap = bitmap;
+        public boolean hasUrl() {
+            return mUrl != null && mUrl.trim().length() != 0;
+        }
+
+        /**
+         * Returns `true` once this target's image has loaded successfully.
+         */
+        public boolean isLoaded() {
+            return mLoaded;
+        }
+
+        /**
+         * Returns the size last requested for this target's image, or 0 if it needs loading.
+         */
+        public int getSize() {
+            return mSize;
+        }
+
+        public void prepareLoad(int size) {
+            mShader = null;
+            mLoaded = false;
+            mSize = size;
         }
 
         @Override
-        public void onBitmapFailed(Drawable errorDrawable) {
-            mCluster.invalidate();
-            mBitmap = null;
+        public void onAvatarLoaded(Bitmap bitmap) {
+            mShader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            mLoaded = true;
+            mCluster.onImageLoaded();
         }
 
         @Override
-        public void onPrepareLoad(Drawable placeHolderDrawable) {
-            mBitmap = null;
+        public void onAvatarFailed() {
+            mCluster.invalidate();
+            mShader = null;
+            mLoaded = false;
+            // Retry on the next update
+            mSize = 0;
         }
 
-        public Bitmap getBitmap() {
-            return mBitmap;
+        /**
+         * Returns a shader drawing the loaded image, or `null` if no image is loaded.
+         */
+        public BitmapShader getShader() {
+            return mShader;
         }
 
         @Override
@@ -349,16 +666,16 @@ public class AtlasAvatar extends View {
         }
     }
 
-    private static Diff diff(Set<Identity> oldSet, Set<Identity> newSet) {
+    private static Diff diff(Set<Object> oldSet, Set<Object> newSet) {
         Diff diff = new Diff();
-        for (Identity old : oldSet) {
+        for (Object old : oldSet) {
             if (newSet.contains(old)) {
                 diff.existing.add(old);
             } else {
                 diff.removed.add(old);
             }
         }
-        for (Identity newItem : newSet) {
+        for (Object newItem : newSet) {
             if (!oldSet.contains(newItem)) {
                 diff.added.add(newItem);
             }
@@ -366,9 +683,80 @@ public class AtlasAvatar extends View {
         return diff;
     }
 
+    /**
+     * Radii and image size of a cluster, computed once from the drawable area.
+     */
+    private static final class ClusterGeometry {
+        final int mDrawableWidth;
+        final int mDrawableHeight;
+        final float mOuterRadius;
+        final float mInnerRadius;
+        final int mImageSize;
+
+        ClusterGeometry(int avatarCount, int drawableWidth, int drawableHeight, float borderSize) {
+            mDrawableWidth = drawableWidth;
+            mDrawableHeight = drawableHeight;
+            float dimension = Math.min(drawableWidth, drawableHeight);
+            float fraction = (avatarCount > 1) ? MULTI_FRACTION : 1;
+            mOuterRadius = fraction * dimension / 2f;
+            mInnerRadius = mOuterRadius - borderSize;
+            mImageSize = Math.round((avatarCount != 1) ? (mInnerRadius * 2f) : (mOuterRadius * 2f));
+        }
+    }
+
     private static class Diff {
-        public List<Identity> existing = new ArrayList<>();
-        public List<Identity> added = new ArrayList<>();
-        public List<Identity> removed = new ArrayList<>();
+        public List<Object> existing = new ArrayList<>();
+        public List<Object> added = new ArrayList<>();
+        public List<Object> removed = new ArrayList<>();
+    }
+
+    /**
+     * Identity-free description of one avatar: its initials and image URL.  AvatarKeys can be
+     * persisted and later displayed with {@link #setAvatarKeys(List)}.
+     */
+    public static final class AvatarKey {
+        private final String mInitials;
+        private final String mAvatarImageUrl;
+
+        public AvatarKey(String initials, String avatarImageUrl) {
+            mInitials = (initials == null) ? "" : initials;
+            mAvatarImageUrl = avatarImageUrl;
+        }
+
+        /**
+         * Returns the AvatarKeys an AtlasAvatar would display for the given participants.
+         */
+        public static List<AvatarKey> fromParticipants(Set<Identity> participants) {
+            List<AvatarKey> keys = new ArrayList<>();
+            for (Identity participant : limitParticipants(participants)) {
+                if (participant == null) continue;
+                keys.add(new AvatarKey(Util.getInitials(participant), participant.getAvatarImageUrl()));
+            }
+            return keys;
+        }
+
+        public String getInitials() {
+            return mInitials;
+        }
+
+        public String getAvatarImageUrl() {
+            return mAvatarImageUrl;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            AvatarKey that = (AvatarKey) o;
+            if (!mInitials.equals(that.mInitials)) return false;
+            return mAvatarImageUrl != null ? mAvatarImageUrl.equals(that.mAvatarImageUrl) : that.mAvatarImageUrl == null;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mInitials.hashCode();
+            result = 31 * result + (mAvatarImageUrl != null ? mAvatarImageUrl.hashCode() : 0);
+            return result;
+        }
     }
 }
@@ -26,9 +26,11 @@ import android.util.AttributeSet;
 import android.view.View;
 
 import com.layer.atlas.adapters.AtlasConversationsAdapter;
+import com.layer.atlas.adapters.ConversationUnreadCounter;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
 import com.layer.atlas.util.AvatarStyle;
 import com.layer.atlas.util.ConversationStyle;
+import com.layer.atlas.util.ItemSelection;
 import com.layer.atlas.util.itemanimators.NoChangeAnimator;
 import com.layer.atlas.util.views.SwipeableItem;
 import com.layer.sdk.LayerClient;
@@ -36,11 +38,21 @@ import com.layer.sdk.messaging.Conversation;
 import com.squareup.picasso.Picasso;
 
 public class AtlasConversationsRecyclerView extends RecyclerView {
+    // Start loading the next page when this many rows remain below the last visible one
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
+
+    // Prefetch avatars for this many rows beyond the visible ones, in the scroll direction
+    private static final int AVATAR_PREFETCH_DISTANCE = 6;
+
     AtlasConversationsAdapter mAdapter;
     private ItemTouchHelper mSwipeItemTouchHelper;
 
     private ConversationStyle conversationStyle;
 
+    // Range of positions avatars were last prefetched for
+    private int mAvatarPrefetchFrom = NO_POSITION;
+    private int mAvatarPrefetchTo = NO_POSITION;
+
     public AtlasConversationsRecyclerView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
         parseStyle(context, attrs, defStyle);
@@ -66,11 +78,42 @@ public class AtlasConversationsRecyclerView extends RecyclerView {
         mAdapter = new AtlasConversationsAdapter(getContext(), layerClient, picasso);
         mAdapter.setStyle(conversationStyle);
         super.setAdapter(mAdapter);
+        mAdapter.restoreSnapshot();
         refresh();
 
+        addOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                prefetchAvatars(dy);
+                if (dy <= 0 || !mAdapter.hasMorePages()) return;
+                int lastVisible = ((LinearLayoutManager) getLayoutManager()).findLastVisibleItemPosition();
+                if (lastVisible >= mAdapter.getItemCount() - PAGE_PREFETCH_DISTANCE) {
+                    mAdapter.loadNextPage();
+                }
+            }
+        });
+
         return this;
     }
 
+    private void prefetchAvatars(int dy) {
+        if (dy == 0 || getChildCount() == 0) return;
+        LinearLayoutManager manager = (LinearLayoutManager) getLayoutManager();
+        int from;
+        int to;
+        if (dy > 0) {
+            from = manager.findLastVisibleItemPosition() + 1;
+            to = from + AVATAR_PREFETCH_DISTANCE;
+        } else {
+            to = manager.findFirstVisibleItemPosition();
+            from = to - AVATAR_PREFETCH_DISTANCE;
+        }
+        if (from == mAvatarPrefetchFrom && to == mAvatarPrefetchTo) return;
+        mAvatarPrefetchFrom = from;
+        mAvatarPrefetchTo = to;
+        mAdapter.prefetchAvatars(getChildViewHolder(getChildAt(0)), from, to);
+    }
+
     @Override
     public void setAdapter(Adapter adapter) {
         throw new RuntimeException("AtlasConversationsRecyclerView sets its own Adapter");
@@ -81,6 +124,17 @@ public class AtlasConversationsRecyclerView extends RecyclerView {
         return this;
     }
 
+    /**
+     * Persists a snapshot of the visible rows so the next cold start can render them immediately.
+     * Call when the Activity/Fragment using the adapter is paused.
+     */
+    public void onPause() {
+        if (mAdapter == null) return;
+        int lastVisible = ((LinearLayoutManager) getLayoutManager()).findLastVisibleItemPosition();
+        if (lastVisible == NO_POSITION) return;
+        mAdapter.saveSnapshot(lastVisible + 1);
+    }
+
     /**
      * Performs cleanup when the Activity/Fragment using the adapter is destroyed.
      */
@@ -115,6 +169,35 @@ public class AtlasConversationsRecyclerView extends RecyclerView {
         return this;
     }
 
+    /**
+     * Convenience pass-through to this list's AtlasConversationsAdapter.
+     *
+     * @see ConversationUnreadCounter#addListener(ConversationUnreadCounter.Listener)
+     */
+    public AtlasConversationsRecyclerView addOnUnreadCountChangedListener(ConversationUnreadCounter.Listener listener) {
+        mAdapter.getUnreadCounter().addListener(listener);
+        return this;
+    }
+
+    /**
+     * Convenience pass-through to this list's AtlasConversationsAdapter.
+     *
+     * @see ConversationUnreadCounter#removeListener(ConversationUnreadCounter.Listener)
+     */
+    public AtlasConversationsRecyclerView removeOnUnreadCountChangedListener(ConversationUnreadCounter.Listener listener) {
+        mAdapter.getUnreadCounter().removeListener(listener);
+        return this;
+    }
+
+    /**
+     * Convenience pass-through to this list's AtlasConversationsAdapter.
+     *
+     * @see AtlasConversationsAdapter#getSelection()
+     */
+    public ItemSelection<Conversation> getSelection() {
+        return mAdapter.getSelection();
+    }
+
     public AtlasConversationsRecyclerView setOnConversationSwipeListener(SwipeableItem.OnSwipeListener<Conversation> listener) {
         if (mSwipeItemTouchHelper != null) {
             mSwipeItemTouchHelper.attachToRecyclerView(null);
@@ -139,6 +222,34 @@ public class AtlasConversationsRecyclerView extends RecyclerView {
         return this;
     }
 
+    /**
+     * Enables paged loading with the given page size and reloads the list.  Further pages are
+     * loaded as the user scrolls towards the end of the list.
+     *
+     * @param pageSize Number of Conversations per page, or 0 to load all Conversations at once.
+     * @return This AtlasConversationsRecyclerView.
+     * @see AtlasConversationsAdapter#setPageSize(int)
+     */
+    public AtlasConversationsRecyclerView setPageSize(int pageSize) {
+        mAdapter.setPageSize(pageSize);
+        refresh();
+        return this;
+    }
+
+    /**
+     * Filters the list to Conversations matching the given text, for example as the user types in
+     * a search field.
+     *
+     * @param filter Text to filter by, or `null` or blank to show all Conversations.
+     * @return This AtlasConversationsRecyclerView.
+     * @see AtlasConversationsAdapter#setFilter(String)
+     */
+    public AtlasConversationsRecyclerView setFilter(String filter) {
+        mAdapter.setFilter(filter);
+        scrollToPosition(0);
+        return this;
+    }
+
     public AtlasConversationsRecyclerView setTypeface(Typeface titleTypeface, Typeface titleUnreadTypeface, Typeface subtitleTypeface, Typeface subtitleUnreadTypeface, Typeface dateTypeface) {
         conversationStyle.setTitleTextTypeface(titleTypeface);
         conversationStyle.setTitleUnreadTextTypeface(titleUnreadTypeface);
@@ -1,7 +1,10 @@
 package com.layer.atlas;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.v4.widget.SwipeRefreshLayout;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.util.AttributeSet;
 import android.view.View;
 
@@ -12,10 +15,26 @@ import com.layer.sdk.listeners.LayerChangeEventListener;
 import com.layer.sdk.messaging.Conversation;
 
 public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout implements LayerChangeEventListener.BackgroundThread.Weak {
+    // Predictive sync tuning
+    private static final int MAX_PREDICTIVE_SYNC_AMOUNT = 200;
+    private static final int PREDICTIVE_SYNC_ITEM_THRESHOLD = 10;
+    private static final long DEFAULT_SYNC_LATENCY_MS = 1000;
+    private static final float LATENCY_SMOOTHING = 0.3f;
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+    // Give up on a predictive sync that never reports back, so predictive syncs can't stall
+    private static final long PREDICTIVE_SYNC_TIMEOUT_MS = 30000;
+
     private LayerClient mLayerClient;
     private Conversation mConversation;
     private int mSyncAmount = 25;
 
+    // Predictive sync state
+    private RecyclerView mPredictiveRecyclerView;
+    private final PredictiveScrollListener mPredictiveScrollListener = new PredictiveScrollListener();
+    private volatile boolean mPredictiveSyncInFlight = false;
+    private volatile long mPredictiveSyncStartedAt = 0;
+    private volatile long mSyncLatencyMs = DEFAULT_SYNC_LATENCY_MS;
+
     public AtlasHistoricMessagesFetchLayout(Context context) {
         super(context);
     }
@@ -56,6 +75,7 @@ public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout impleme
      */
     public AtlasHistoricMessagesFetchLayout setConversation(Conversation conversation) {
         mConversation = conversation;
+        mPredictiveSyncInFlight = false;
         mLayerClient.registerEventListener(this);
         refresh();
         return this;
@@ -73,6 +93,66 @@ public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout impleme
         return this;
     }
 
+    /**
+     * Enables predictive historic sync for the given message list.  While enabled, the list's
+     * scroll position and velocity are watched, and the next page of historic Messages is requested
+     * before the user reaches the top.  Page size adapts to the observed scroll speed and sync
+     * latency, and is never smaller than the amount set with setHistoricMessagesPerFetch().
+     * Pull-to-refresh keeps working as before.
+     *
+     * @param recyclerView The message list to watch, or `null` to disable predictive sync.
+     * @return This `AtlasMessagesSwipeSyncLayout`.
+     * @see #setHistoricMessagesPerFetch(int)
+     */
+    public AtlasHistoricMessagesFetchLayout setPredictiveSyncRecyclerView(RecyclerView recyclerView) {
+        if (mPredictiveRecyclerView != null) {
+            mPredictiveRecyclerView.removeOnScrollListener(mPredictiveScrollListener);
+        }
+        mPredictiveRecyclerView = recyclerView;
+        mPredictiveScrollListener.reset();
+        if (recyclerView != null) {
+            recyclerView.addOnScrollListener(mPredictiveScrollListener);
+        }
+        return this;
+    }
+
+    /**
+     * Requests the next historic page if the watched list is expected to reach the top before the
+     * sync could complete.
+     */
+    private void maybeSyncPredictively(RecyclerView recyclerView, float velocityPxPerMs) {
+        if (mConversation == null) return;
+        if (mPredictiveSyncInFlight) {
+            // Measured on the same clock as the sync latency
+            if (SystemClock.elapsedRealtime() - mPredictiveSyncStartedAt < PREDICTIVE_SYNC_TIMEOUT_MS) return;
+            mPredictiveSyncInFlight = false;
+        }
+        if (!(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) return;
+        if (mConversation.getHistoricSyncStatus() != Conversation.HistoricSyncStatus.MORE_AVAILABLE) {
+            return;
+        }
+
+        int itemCount = recyclerView.getAdapter() == null ? 0 : recyclerView.getAdapter().getItemCount();
+        if (itemCount == 0) return;
+        int firstVisible = ((LinearLayoutManager) recyclerView.getLayoutManager()).findFirstVisibleItemPosition();
+        if (firstVisible == RecyclerView.NO_POSITION) return;
+
+        float itemHeightPx = (float) recyclerView.computeVerticalScrollRange() / itemCount;
+        float itemsPerMs = (itemHeightPx > 0) ? velocityPxPerMs / itemHeightPx : 0f;
+        long latencyMs = mSyncLatencyMs;
+
+        // Items the user will scroll past while a sync is in flight
+        int itemsDuringSync = (int) Math.ceil(itemsPerMs * latencyMs);
+        if (firstVisible > Math.max(PREDICTIVE_SYNC_ITEM_THRESHOLD, itemsDuringSync)) return;
+
+        // Fetch enough to cover the next sync round trip at the current speed
+        int amount = Math.max(mSyncAmount, Math.min(MAX_PREDICTIVE_SYNC_AMOUNT, 2 * itemsDuringSync));
+        mPredictiveSyncInFlight = true;
+        mPredictiveSyncStartedAt = SystemClock.elapsedRealtime();
+        // The status may change asynchronously, so only its listener or the timeout clears the flag
+        mConversation.syncMoreHistoricMessages(amount);
+    }
+
     /**
      * Refreshes the state of this `AtlasMessagesSwipeSyncLayout`.
      *
@@ -89,7 +169,8 @@ public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout impleme
                 }
                 Conversation.HistoricSyncStatus status = mConversation.getHistoricSyncStatus();
                 setEnabled(status == Conversation.HistoricSyncStatus.MORE_AVAILABLE);
-                setRefreshing(status == Conversation.HistoricSyncStatus.SYNC_PENDING);
+                // Predictive syncs stream in behind the list, so don't show the spinner for them
+                setRefreshing(status == Conversation.HistoricSyncStatus.SYNC_PENDING && !mPredictiveSyncInFlight);
             }
         });
         return this;
@@ -101,7 +182,51 @@ public class AtlasHistoricMessagesFetchLayout extends SwipeRefreshLayout impleme
             if (change.getObject() != mConversation) continue;
             if (change.getChangeType() != LayerChange.Type.UPDATE) continue;
             if (!change.getAttributeName().equals("historicSyncStatus")) continue;
+            if (mPredictiveSyncInFlight && mConversation.getHistoricSyncStatus() != Conversation.HistoricSyncStatus.SYNC_PENDING) {
+                long latency = SystemClock.elapsedRealtime() - mPredictiveSyncStartedAt;
+                mSyncLatencyMs = (long) (LATENCY_SMOOTHING * latency + (1f - LATENCY_SMOOTHING) * mSyncLatencyMs);
+                mPredictiveSyncInFlight = false;
+            }
             refresh();
         }
     }
+
+    /**
+     * Tracks upward scroll velocity of the watched list and triggers predictive syncs.
+     */
+    private class PredictiveScrollListener extends RecyclerView.OnScrollListener {
+        private long mLastScrolledAt = 0;
+        private float mVelocityPxPerMs = 0f;
+
+        void reset() {
+            mLastScrolledAt = 0;
+            mVelocityPxPerMs = 0f;
+        }
+
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            long now = SystemClock.uptimeMillis();
+            if (dy >= 0) {
+                // Scrolling towards newer Messages; nothing to predict
+                mVelocityPxPerMs = 0f;
+                mLastScrolledAt = now;
+                return;
+            }
+            long elapsed = now - mLastScrolledAt;
+            if (mLastScrolledAt != 0 && elapsed > 0) {
+                float velocity = (float) -dy / elapsed;
+                mVelocityPxPerMs = VELOCITY_SMOOTHING * velocity + (1f - VELOCITY_SMOOTHING) * mVelocityPxPerMs;
+            }
+            mLastScrolledAt = now;
+            maybeSyncPredictively(recyclerView, mVelocityPxPerMs);
+        }
+
+        @Override
+        public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+            if (newState != RecyclerView.SCROLL_STATE_IDLE) return;
+            reset();
+            // Still near the top after settling: keep history coming
+            maybeSyncPredictively(recyclerView, 0f);
+        }
+    }
 }
@@ -208,7 +208,9 @@ public class AtlasMessageComposer extends FrameLayout {
 
     /**
      * Sets an optional callback for receiving MessageSender events.  If non-null, overrides any
-     * callbacks already set on MessageSenders.
+     * callbacks already set on MessageSenders.  Image attachments are built in the background and
+     * shown as placeholder rows until they are sent; pass a MessageSender.ProgressCallback to
+     * follow their progress as well.
      *
      * @param callback Callback to receive MessageSender events.
      * @return This AtlasMessageComposer.
@@ -22,11 +22,14 @@ import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.helper.ItemTouchHelper;
 import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
 import android.view.View;
 
 import com.layer.atlas.adapters.AtlasMessagesAdapter;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
 import com.layer.atlas.messagetypes.MessageStyle;
+import com.layer.atlas.util.ItemSelection;
 import com.layer.atlas.util.itemanimators.NoChangeAnimator;
 import com.layer.atlas.util.views.SwipeableItem;
 import com.layer.sdk.LayerClient;
@@ -86,6 +89,26 @@ public class AtlasMessagesRecyclerView extends RecyclerView {
             }
         });
 
+        // While selecting, taps toggle Messages instead of reaching their cells
+        final GestureDetector selectionTapDetector = new GestureDetector(getContext(), new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onSingleTapUp(MotionEvent e) {
+                return true;
+            }
+        });
+        addOnItemTouchListener(new SimpleOnItemTouchListener() {
+            @Override
+            public boolean onInterceptTouchEvent(RecyclerView recyclerView, MotionEvent e) {
+                if (!mAdapter.getSelection().isActive() || !selectionTapDetector.onTouchEvent(e)) return false;
+                View child = findChildViewUnder(e.getX(), e.getY());
+                if (child == null) return false;
+                Message message = mAdapter.getItem(getChildViewHolder(child));
+                if (message == null) return false;
+                mAdapter.getSelection().toggle(message);
+                return true;
+            }
+        });
+
         return this;
     }
 
@@ -126,7 +149,7 @@ public class AtlasMessagesRecyclerView extends RecyclerView {
      * @return This AtlasMessagesRecyclerView.
      */
     public AtlasMessagesRecyclerView setConversation(Conversation conversation) {
-        mAdapter.setQuery(Query.builder(Message.class)
+        mAdapter.setConversation(conversation).setQuery(Query.builder(Message.class)
                 .predicate(new Predicate(Message.Property.CONVERSATION, Predicate.Operator.EQUAL_TO, conversation))
                 .sortDescriptor(new SortDescriptor(Message.Property.POSITION, SortDescriptor.Order.ASCENDING))
                 .build()).refresh();
@@ -147,6 +170,15 @@ public class AtlasMessagesRecyclerView extends RecyclerView {
         return this;
     }
 
+    /**
+     * Convenience pass-through to this list's AtlasMessagesAdapter.
+     *
+     * @see AtlasMessagesAdapter#getSelection()
+     */
+    public ItemSelection<Message> getSelection() {
+        return mAdapter.getSelection();
+    }
+
     /**
      * Convenience pass-through to this list's AtlasMessagesAdapter.
      *
@@ -1,6 +1,10 @@
 package com.layer.atlas.adapters;
 
 import android.content.Context;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -15,41 +19,80 @@ import com.layer.atlas.messagetypes.location.LocationCellFactory;
 import com.layer.atlas.messagetypes.singlepartimage.SinglePartImageCellFactory;
 import com.layer.atlas.messagetypes.text.TextCellFactory;
 import com.layer.atlas.messagetypes.threepartimage.ThreePartImageCellFactory;
+import com.layer.atlas.util.BatchOperationRunner;
 import com.layer.atlas.util.ConversationStyle;
-import com.layer.atlas.util.IdentityRecyclerViewEventListener;
-import com.layer.atlas.util.Util;
+import com.layer.atlas.util.HistoricSyncScheduler;
+import com.layer.atlas.util.ItemSelection;
+import com.layer.atlas.util.LocalMessageCountTracker;
+import com.layer.atlas.util.Log;
+import com.layer.atlas.util.TimeLabelScheduler;
 import com.layer.sdk.LayerClient;
+import com.layer.sdk.exceptions.LayerException;
+import com.layer.sdk.listeners.LayerAuthenticationListener;
 import com.layer.sdk.messaging.Conversation;
 import com.layer.sdk.messaging.Identity;
 import com.layer.sdk.messaging.Message;
+import com.layer.sdk.query.ListViewController;
 import com.layer.sdk.query.Predicate;
 import com.layer.sdk.query.Query;
 import com.layer.sdk.query.RecyclerViewController;
 import com.layer.sdk.query.SortDescriptor;
 import com.squareup.picasso.Picasso;
 
-import java.text.DateFormat;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConversationsAdapter.ViewHolder> implements AtlasBaseAdapter<Conversation>, RecyclerViewController.Callback {
+    // Longest last-message preview to decode for a single-line row
+    private static final int PREVIEW_MAX_CHARS = 160;
+    private static final String SNAPSHOT_PREFIX = "atlas_conversations_";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
     protected final LayerClient mLayerClient;
     protected final Picasso mPicasso;
     private final RecyclerViewController<Conversation> mQueryController;
     private final LayoutInflater mInflater;
-    private long mInitialHistory = 0;
+    private final Handler mUiThreadHandler = new Handler(Looper.getMainLooper());
+
+    // Paging; a page size of 0 loads all Conversations at once
+    private int mPageSize = 0;
+    private long mLimit = 0;
+    // Row count and last row before the page being loaded, or -1 and null if none is loading
+    private int mPageLoadFrom = -1;
+    private Conversation mPageLoadBoundary;
+
+    // Cold-start snapshot shown until the Query delivers live data; read by background prefetches
+    private final File mCacheDir;
+    private final LayerAuthenticationListener mAuthenticationListener;
+    private volatile ConversationListSnapshot mSnapshot;
+
+    // Search filter; while set, rows come from the search index instead of the Query
+    private final ConversationSearchIndex mSearchIndex;
+    private String mFilter;
+    private volatile List<Conversation> mFilteredConversations;
+    private final LocalMessageCountTracker mMessageCountTracker;
+    private final HistoricSyncScheduler mHistoricSyncScheduler;
 
     private OnConversationClickListener mConversationClickListener;
     private ViewHolder.OnClickListener mViewHolderClickListener;
 
-    private final DateFormat mDateFormat;
-    private final DateFormat mTimeFormat;
     private ConversationStyle conversationStyle;
-    private final IdentityRecyclerViewEventListener mIdentityEventListener;
+    private final ConversationRowModelCache mRowModels;
+    private final ConversationUnreadCounter mUnreadCounter;
+    private final TimeLabelScheduler mTimeLabelScheduler;
+    private final ItemSelection<Conversation> mSelection;
+    private final BatchOperationRunner mBatchRunner;
 
     protected Set<AtlasCellFactory> mCellFactories;
     private Set<AtlasCellFactory> mDefaultCellFactories;
@@ -59,36 +102,93 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
     }
 
     public AtlasConversationsAdapter(Context context, LayerClient client, Picasso picasso, Collection<String> updateAttributes) {
-        Query<Conversation> query = Query.builder(Conversation.class)
-                /* Only show conversations we're still a member of */
-                .predicate(new Predicate(Conversation.Property.PARTICIPANT_COUNT, Predicate.Operator.GREATER_THAN, 1))
-
-                /* Sort by the last Message's receivedAt time */
-                .sortDescriptor(new SortDescriptor(Conversation.Property.LAST_MESSAGE_RECEIVED_AT, SortDescriptor.Order.DESCENDING))
-                .build();
-        mQueryController = client.newRecyclerViewController(query, updateAttributes, this);
+        mQueryController = client.newRecyclerViewController(buildQuery(), updateAttributes, this);
         mLayerClient = client;
         mPicasso = picasso;
+        mCacheDir = context.getCacheDir();
+        mRowModels = new ConversationRowModelCache(context, client, new ConversationRowModelCache.PreviewProvider() {
+            @Override
+            public String getPreviewText(Context context, Message message) {
+                return getLastMessageString(context, message);
+            }
+        }, new ConversationRowModelCache.Listener() {
+            @Override
+            public void onRowModelChanged(Conversation conversation, int changedParts) {
+                if (mSnapshot != null) return;
+                Integer position = getPosition(conversation);
+                if (position == null || position < 0) return;
+                mBatchRunner.notifyItemRangeChanged(position, 1, changedParts);
+            }
+        });
+        mQueryController.setPreProcessCallback(new ListViewController.PreProcessCallback<Conversation>() {
+            @Override
+            public void onCache(ListViewController listViewController, Conversation conversation) {
+                mRowModels.prefetch(conversation);
+            }
+        });
+        mLayerClient.registerEventListener(mRowModels);
+        // The search index and unread counter share one seed query
+        ConversationSeeder seeder = new ConversationSeeder(client);
+        mSearchIndex = new ConversationSearchIndex(client, seeder, new ConversationSearchIndex.Listener() {
+            @Override
+            public void onSearchIndexChanged(Set<Uri> changedIds) {
+                if (mFilter == null) return;
+                updateFilteredConversations(mSearchIndex.search(mFilter), changedIds);
+            }
+        });
+        mLayerClient.registerEventListener(mSearchIndex);
+        mUnreadCounter = new ConversationUnreadCounter(seeder);
+        mTimeLabelScheduler = new TimeLabelScheduler(this, ConversationRowModel.PART_TIME);
+        // An empty parts payload rebinds only the selection state
+        mSelection = new ItemSelection<>(this, 0);
+        mBatchRunner = new BatchOperationRunner(this);
+        mLayerClient.registerEventListener(mUnreadCounter);
         mInflater = LayoutInflater.from(context);
-        mDateFormat = android.text.format.DateFormat.getDateFormat(context);
-        mTimeFormat = android.text.format.DateFormat.getTimeFormat(context);
         mViewHolderClickListener = new ViewHolder.OnClickListener() {
             @Override
             public void onClick(ViewHolder viewHolder) {
+                // Snapshot rows aren't clickable until live data arrives
+                if (viewHolder.getConversation() == null) return;
+                if (mSelection.isActive()) {
+                    mSelection.toggle(viewHolder.getConversation());
+                    return;
+                }
                 if (mConversationClickListener == null) return;
                 mConversationClickListener.onConversationClick(AtlasConversationsAdapter.this, viewHolder.getConversation());
             }
 
             @Override
             public boolean onLongClick(ViewHolder viewHolder) {
-                if (mConversationClickListener == null) return false;
+                if (mConversationClickListener == null || viewHolder.getConversation() == null) return false;
                 return mConversationClickListener.onConversationLongClick(AtlasConversationsAdapter.this, viewHolder.getConversation());
             }
         };
         setHasStableIds(false);
 
-        mIdentityEventListener = new IdentityRecyclerViewEventListener(this);
-        mLayerClient.registerEventListener(mIdentityEventListener);
+        mMessageCountTracker = LocalMessageCountTracker.getInstance(context, mLayerClient);
+        mHistoricSyncScheduler = new HistoricSyncScheduler(mMessageCountTracker, this);
+        mLayerClient.registerEventListener(mHistoricSyncScheduler);
+
+        mAuthenticationListener = new LayerAuthenticationListener.BackgroundThread() {
+            @Override
+            public void onAuthenticated(LayerClient layerClient, String userId) {
+            }
+
+            @Override
+            public void onDeauthenticated(LayerClient layerClient) {
+                // Snapshots hold message previews, so they must not outlive the session
+                deleteSnapshots(mCacheDir);
+            }
+
+            @Override
+            public void onAuthenticationChallenge(LayerClient layerClient, String nonce) {
+            }
+
+            @Override
+            public void onAuthenticationError(LayerClient layerClient, LayerException e) {
+            }
+        };
+        mLayerClient.registerAuthenticationListener(mAuthenticationListener);
     }
 
     public AtlasConversationsAdapter addCellFactories(AtlasCellFactory... cellFactories) {
@@ -96,6 +196,7 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
             mCellFactories = new LinkedHashSet<AtlasCellFactory>();
         }
         Collections.addAll(mCellFactories, cellFactories);
+        mRowModels.invalidateAll();
         return this;
     }
 
@@ -106,49 +207,454 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
         mQueryController.execute();
     }
 
+    private Query<Conversation> buildQuery() {
+        Query.Builder<Conversation> builder = Query.builder(Conversation.class)
+                /* Only show conversations we're still a member of */
+                .predicate(new Predicate(Conversation.Property.PARTICIPANT_COUNT, Predicate.Operator.GREATER_THAN, 1))
+
+                /* Sort by the last Message's receivedAt time */
+                .sortDescriptor(new SortDescriptor(Conversation.Property.LAST_MESSAGE_RECEIVED_AT, SortDescriptor.Order.DESCENDING));
+        if (mLimit > 0) builder.limit(mLimit);
+        return builder.build();
+    }
+
     /**
      * Performs cleanup when the Activity/Fragment using the adapter is destroyed.
      */
     public void onDestroy() {
-        mLayerClient.unregisterEventListener(mIdentityEventListener);
+        mTimeLabelScheduler.stop();
+        mLayerClient.unregisterEventListener(mRowModels);
+        mLayerClient.unregisterEventListener(mSearchIndex);
+        mLayerClient.unregisterEventListener(mUnreadCounter);
+        mLayerClient.unregisterAuthenticationListener(mAuthenticationListener);
+        mLayerClient.unregisterEventListener(mHistoricSyncScheduler);
+        mHistoricSyncScheduler.shutdown();
+        mMessageCountTracker.flush();
     }
 
     //==============================================================================================
-    // Initial message history
+    // Paging
     //==============================================================================================
 
-    public AtlasConversationsAdapter setInitialHistoricMessagesToFetch(long initialHistory) {
-        mInitialHistory = initialHistory;
+    /**
+     * Enables paged loading.  The Query initially returns the `pageSize` most recent Conversations,
+     * and each call to loadNextPage() extends it by another page.  Pages are added by growing the
+     * limit of a single live Query rather than by offsetting separate Queries, so Conversations
+     * moving to the top on new Messages never appear twice or fall between pages.
+     *
+     * @param pageSize Number of Conversations per page, or 0 to load all Conversations at once.
+     * @return This AtlasConversationsAdapter.
+     * @see #loadNextPage()
+     */
+    public AtlasConversationsAdapter setPageSize(int pageSize) {
+        mPageSize = Math.max(0, pageSize);
+        mLimit = mPageSize;
+        mQueryController.setQuery(buildQuery());
         return this;
     }
 
-    public void setStyle(ConversationStyle conversationStyle) {
-        this.conversationStyle = conversationStyle;
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Returns `true` if paging is enabled and the last page loaded was full, so more Conversations
+     * may be available.
+     */
+    public boolean hasMorePages() {
+        return !isFiltered() && mPageSize > 0 && getItemCount() >= mLimit;
+    }
+
+    /**
+     * Extends the Query by one page if paging is enabled and more Conversations may be available.
+     * While a page is loading the item count is below the new limit, so repeated calls are
+     * ignored.  Rows already shown stay bound; only the new page's rows are inserted and synced.
+     */
+    public void loadNextPage() {
+        if (!hasMorePages()) return;
+        mPageLoadFrom = getItemCount();
+        mPageLoadBoundary = (mPageLoadFrom > 0) ? mQueryController.getItem(mPageLoadFrom - 1) : null;
+        mLimit += mPageSize;
+        mQueryController.setQuery(buildQuery());
+        mQueryController.execute();
+    }
+
+    //==============================================================================================
+    // Selection and batch operations
+    //==============================================================================================
+
+    /**
+     * Returns this adapter's multi-select state.  While selection is active, tapping a Conversation
+     * toggles its selection instead of alerting the OnConversationClickListener.
+     *
+     * @return This adapter's ItemSelection.
+     */
+    public ItemSelection<Conversation> getSelection() {
+        return mSelection;
+    }
+
+    /**
+     * Deletes the selected Conversations on a background thread and leaves selection mode.
+     *
+     * @param deletionMode Whether to delete for all participants or only on this user's devices.
+     * @param callback     Alerted on the UI thread once all Conversations were processed, or `null`.
+     */
+    public void deleteSelected(final LayerClient.DeletionMode deletionMode, BatchOperationRunner.Callback callback) {
+        runOnSelected(new BatchOperationRunner.Operation<Conversation>() {
+            @Override
+            public void apply(Conversation conversation) {
+                conversation.delete(deletionMode);
+            }
+        }, callback);
+    }
+
+    /**
+     * Marks all Messages in the selected Conversations as read on a background thread and leaves
+     * selection mode.
+     *
+     * @param callback Alerted on the UI thread once all Conversations were processed, or `null`.
+     */
+    public void markSelectedAsRead(BatchOperationRunner.Callback callback) {
+        runOnSelected(new BatchOperationRunner.Operation<Conversation>() {
+            @Override
+            public void apply(Conversation conversation) {
+                conversation.markAllMessagesAsRead();
+            }
+        }, callback);
+    }
+
+    /**
+     * Removes the authenticated user from the selected Conversations on a background thread and
+     * leaves selection mode.
+     *
+     * @param callback Alerted on the UI thread once all Conversations were processed, or `null`.
+     */
+    public void leaveSelected(BatchOperationRunner.Callback callback) {
+        final Identity user = mLayerClient.getAuthenticatedUser();
+        if (user == null) return;
+        runOnSelected(new BatchOperationRunner.Operation<Conversation>() {
+            @Override
+            public void apply(Conversation conversation) {
+                conversation.removeParticipants(user);
+            }
+        }, callback);
+    }
+
+    private void runOnSelected(BatchOperationRunner.Operation<Conversation> operation, BatchOperationRunner.Callback callback) {
+        List<Conversation> selected = mSelection.getSelected();
+        mSelection.setActive(false);
+        mBatchRunner.run(selected, operation, callback);
+    }
+
+    //==============================================================================================
+    // Search filter
+    //==============================================================================================
+
+    /**
+     * Filters the list to Conversations whose title, metadata title, or participant display names
+     * contain the given text.  Matches come from an in-memory index kept up to date from change
+     * events, so filtering neither re-runs the Query nor waits for it.  While a filter is set, all
+     * matching Conversations are shown regardless of paging.
+     *
+     * @param filter Text to filter by, or `null` or blank to show all Conversations.
+     * @return This AtlasConversationsAdapter.
+     */
+    public AtlasConversationsAdapter setFilter(String filter) {
+        if (filter == null || filter.trim().isEmpty()) {
+            if (mFilter == null) return this;
+            mFilter = null;
+            mFilteredConversations = null;
+        } else {
+            mSearchIndex.seed();
+            mSnapshot = null;
+            mFilter = filter;
+            mFilteredConversations = mSearchIndex.search(filter);
+        }
+        notifyDataSetChanged();
+        return this;
+    }
+
+    public String getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Replaces the filtered rows with updated search results, notifying only the rows that were
+     * removed, inserted, moved or changed.
+     *
+     * @param updated    Updated search results.
+     * @param changedIds IDs of Conversations whose rows may need rebinding.
+     */
+    private void updateFilteredConversations(List<Conversation> updated, Set<Uri> changedIds) {
+        List<Uri> before = getIds(mFilteredConversations);
+        mFilteredConversations = updated;
+        notifyRowUpdates(before, getIds(updated), changedIds);
+    }
+
+    private static List<Uri> getIds(List<Conversation> conversations) {
+        List<Uri> ids = new ArrayList<>(conversations.size());
+        for (Conversation conversation : conversations) {
+            ids.add(conversation.getId());
+        }
+        return ids;
+    }
+
+    private static Map<Uri, Integer> getPositions(List<Uri> ids) {
+        Map<Uri, Integer> positions = new HashMap<>(ids.size() * 2);
+        for (int i = 0; i < ids.size(); i++) {
+            positions.put(ids.get(i), i);
+        }
+        return positions;
+    }
+
+    /**
+     * Returns `true` if rows are currently filtered by setFilter().
+     */
+    public boolean isFiltered() {
+        return mFilteredConversations != null;
+    }
+
+    //==============================================================================================
+    // Cold-start snapshot
+    //==============================================================================================
+
+    /**
+     * Shows the first-screen snapshot persisted by saveSnapshot(), if one exists for the
+     * authenticated user.  The snapshot is read on a background thread and shown only if the
+     * Query has not delivered data and no filter was set by then.  Snapshot rows are replaced with
+     * live rows as soon as the Query delivers data.  Call before the first refresh().
+     *
+     * @return `true` if a snapshot is being read, or `false` otherwise.
+     * @see #saveSnapshot(int)
+     */
+    public boolean restoreSnapshot() {
+        if (mSnapshot != null || isFiltered() || mQueryController.getItemCount() > 0) return false;
+        final File file = getSnapshotFile();
+        if (file == null) return false;
+        // Serialized with saveSnapshot() writes and deleteSnapshots(), so the latest state is read
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ConversationListSnapshot snapshot = ConversationListSnapshot.read(file);
+                if (snapshot == null || snapshot.size() == 0) return;
+                mUiThreadHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mSnapshot != null || isFiltered() || mQueryController.getItemCount() > 0) return;
+                        if (!file.equals(getSnapshotFile())) return;
+                        mSnapshot = snapshot;
+                        notifyDataSetChanged();
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Captures the first `rowCount` rows and persists them on a background thread, for display by
+     * restoreSnapshot() on the next cold start.  Call when the list is paused.
+     *
+     * @param rowCount Number of rows to capture, typically the number of visible rows.
+     */
+    public void saveSnapshot(int rowCount) {
+        if (mSnapshot != null) return;
+        final File file = getSnapshotFile();
+        if (file == null) return;
+        int count = Math.min(rowCount, mQueryController.getItemCount());
+        List<ConversationListSnapshot.Row> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Conversation conversation = mQueryController.getItem(i);
+            ConversationRowModel model = mRowModels.get(conversation);
+            Date receivedAt = model.getLastMessageReceivedAt();
+            rows.add(new ConversationListSnapshot.Row(conversation.getId().toString(),
+                    model.getTitle(), model.getPreview(), model.getTimeLabel(),
+                    receivedAt == null ? -1 : receivedAt.getTime(), model.isUnread(),
+                    AtlasAvatar.AvatarKey.fromParticipants(model.getParticipants())));
+        }
+        final ConversationListSnapshot snapshot = new ConversationListSnapshot(rows);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                snapshot.write(file);
+            }
+        });
+    }
+
+    /**
+     * Deletes the snapshots persisted by saveSnapshot() for all users, for example on logout.
+     * Adapters do this themselves when they see the LayerClient deauthenticate; call this when
+     * no adapter is alive at logout.
+     *
+     * @param context Context whose cache directory holds the snapshots.
+     */
+    public static void deleteSnapshots(Context context) {
+        deleteSnapshots(context.getCacheDir());
     }
 
-    private void syncInitialMessages(final int start, final int length) {
-        new Thread(new Runnable() {
+    private static void deleteSnapshots(final File cacheDir) {
+        // Serialized with saveSnapshot() writes, so a pending write cannot resurrect a snapshot
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
             @Override
             public void run() {
-                long desiredHistory = mInitialHistory;
-                if (desiredHistory <= 0) return;
-                for (int i = start; i < start + length; i++) {
-                    try {
-                        final Conversation conversation = getItem(i);
-                        if (conversation == null || conversation.getHistoricSyncStatus() != Conversation.HistoricSyncStatus.MORE_AVAILABLE) {
-                            continue;
-                        }
-                        Query<Message> localCountQuery = Query.builder(Message.class)
-                                .predicate(new Predicate(Message.Property.CONVERSATION, Predicate.Operator.EQUAL_TO, conversation))
-                                .build();
-                        long delta = desiredHistory - mLayerClient.executeQueryForCount(localCountQuery);
-                        if (delta > 0) conversation.syncMoreHistoricMessages((int) delta);
-                    } catch (IndexOutOfBoundsException e) {
-                        // Concurrent modification
+                File[] files = cacheDir.listFiles();
+                if (files == null) return;
+                for (File file : files) {
+                    String name = file.getName();
+                    if (!name.startsWith(SNAPSHOT_PREFIX) || !name.endsWith(SNAPSHOT_SUFFIX)) continue;
+                    if (!file.delete() && Log.isLoggable(Log.WARN)) {
+                        Log.w("Could not delete conversation snapshot " + file);
                     }
                 }
             }
-        }).start();
+        });
+    }
+
+    private File getSnapshotFile() {
+        Identity user = mLayerClient.getAuthenticatedUser();
+        if (user == null) return null;
+        return new File(mCacheDir, SNAPSHOT_PREFIX + Uri.encode(user.getUserId()) + SNAPSHOT_SUFFIX);
+    }
+
+    private void bindSnapshotRow(ViewHolder viewHolder, ConversationListSnapshot.Row row) {
+        viewHolder.setConversation(null);
+        viewHolder.mRowModel = null;
+        viewHolder.itemView.setActivated(false);
+        mTimeLabelScheduler.untrack(viewHolder);
+        viewHolder.mAvatarCluster.setAvatarKeys(row.getAvatarKeys());
+        viewHolder.mTitleView.setText(row.getTitle());
+        viewHolder.applyStyle(row.isUnread());
+        viewHolder.mMessageView.setText(row.getPreview());
+
+        // Relative labels like "Yesterday" go stale once the day has changed
+        String timeLabel = row.getTimeLabel();
+        if (row.getLastMessageReceivedAt() >= 0 && mSnapshot.getWrittenAt() < getTodayMidnight()) {
+            timeLabel = mRowModels.formatTimeLabel(new Date(row.getLastMessageReceivedAt()));
+        }
+        viewHolder.mTimeView.setText(timeLabel);
+    }
+
+    private static long getTodayMidnight() {
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * Replaces snapshot rows with live rows, row by row: snapshot rows of Conversations no longer
+     * among the first live rows are removed, the rest are moved into live order and rebound, and
+     * new rows are inserted.  Live rows past the snapshot's length are inserted as one range.
+     *
+     * @return `true` if a snapshot was being shown, or `false` otherwise.
+     */
+    private boolean swapSnapshotToLive() {
+        ConversationListSnapshot snapshot = mSnapshot;
+        if (snapshot == null) return false;
+        List<Uri> before = new ArrayList<>(snapshot.size());
+        for (ConversationListSnapshot.Row row : snapshot.getRows()) {
+            before.add(Uri.parse(row.getConversationId()));
+        }
+        int newCount = mQueryController.getItemCount();
+        int reconciled = Math.min(snapshot.size(), newCount);
+        List<Uri> after = new ArrayList<>(reconciled);
+        for (int i = 0; i < reconciled; i++) {
+            after.add(mQueryController.getItem(i).getId());
+        }
+        mSnapshot = null;
+        notifyRowUpdates(before, after, null);
+        mBatchRunner.notifyItemRangeInserted(reconciled, newCount - reconciled);
+        return true;
+    }
+
+    /**
+     * Notifies the removes, inserts and moves that turn rows showing the Conversations in `before`
+     * into rows showing those in `after`, then notifies changes for rebinding.  A row moving up,
+     * as one does on a new Message, is a single move.
+     *
+     * @param before     Conversation IDs of the rows as last notified.
+     * @param after      Conversation IDs of the rows now.
+     * @param changedIds IDs of Conversations whose rows need rebinding, or `null` to rebind every
+     *                   row kept from `before`.
+     */
+    private void notifyRowUpdates(List<Uri> before, List<Uri> after, Set<Uri> changedIds) {
+        Set<Uri> kept = new HashSet<>(after);
+        List<Uri> rows = new ArrayList<>(before.size());
+        for (int i = before.size() - 1; i >= 0; i--) {
+            if (!kept.contains(before.get(i))) mBatchRunner.notifyItemRangeRemoved(i, 1);
+        }
+        for (Uri id : before) {
+            if (kept.contains(id)) rows.add(id);
+        }
+        Set<Uri> present = new HashSet<>(rows);
+
+        // Rows not yet in place sit at rowPositions + inserted; inserts only happen above them
+        Map<Uri, Integer> targets = getPositions(after);
+        Map<Uri, Integer> rowPositions = getPositions(rows);
+        int inserted = 0;
+
+        // Bring rows into the new order front to back
+        int i = 0;
+        while (i < after.size()) {
+            Uri id = after.get(i);
+            if (!present.contains(id)) {
+                int end = i + 1;
+                while (end < after.size() && !present.contains(after.get(end))) end++;
+                rows.addAll(i, after.subList(i, end));
+                mBatchRunner.notifyItemRangeInserted(i, end - i);
+                inserted += end - i;
+                i = end;
+                continue;
+            }
+            if (!rows.get(i).equals(id)) {
+                if (i + 1 < rows.size() && rows.get(i + 1).equals(id)) {
+                    // The row here moved down, so move it rather than everything below it up
+                    Uri moved = rows.remove(i);
+                    int to = Math.max(i + 1, Math.min(targets.get(moved), rows.size()));
+                    rows.add(to, moved);
+                    mBatchRunner.notifyItemMoved(i, to);
+                    for (int shifted = i; shifted <= to; shifted++) {
+                        rowPositions.put(rows.get(shifted), shifted - inserted);
+                    }
+                } else {
+                    int from = rowPositions.get(id) + inserted;
+                    rows.add(i, rows.remove(from));
+                    mBatchRunner.notifyItemMoved(from, i);
+                    for (int shifted = i; shifted <= from; shifted++) {
+                        rowPositions.put(rows.get(shifted), shifted - inserted);
+                    }
+                }
+            }
+            i++;
+        }
+
+        for (int position = 0; position < after.size(); position++) {
+            Uri id = after.get(position);
+            if (changedIds == null) {
+                if (present.contains(id)) mBatchRunner.notifyItemRangeChanged(position, 1, null);
+            } else if (changedIds.contains(id)) {
+                mBatchRunner.notifyItemRangeChanged(position, 1, mRowModels.takeChangedParts(id));
+            }
+        }
+    }
+
+    //==============================================================================================
+    // Initial message history
+    //==============================================================================================
+
+    public AtlasConversationsAdapter setInitialHistoricMessagesToFetch(long initialHistory) {
+        mHistoricSyncScheduler.setDesiredHistory(initialHistory);
+        return this;
+    }
+
+    public void setStyle(ConversationStyle conversationStyle) {
+        this.conversationStyle = conversationStyle;
+    }
+
+    private void syncInitialMessages(int start, int length) {
+        mHistoricSyncScheduler.schedule(start, length);
     }
 
 
@@ -161,6 +667,16 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
         return this;
     }
 
+    /**
+     * Returns the counter of unread Messages across all Conversations shown by this adapter, for
+     * example to drive an unread badge.  The counter lives as long as this adapter.
+     *
+     * @return This adapter's ConversationUnreadCounter.
+     */
+    public ConversationUnreadCounter getUnreadCounter() {
+        return mUnreadCounter;
+    }
+
 
     //==============================================================================================
     // Adapter
@@ -178,52 +694,114 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
 
     @Override
     public void onBindViewHolder(ViewHolder viewHolder, int position) {
+        if (mSnapshot != null) {
+            bindSnapshotRow(viewHolder, mSnapshot.getRows().get(position));
+            return;
+        }
+        Conversation conversation = getBoundItem(position);
+        bindRowModel(viewHolder, conversation, mRowModels.get(conversation), ConversationRowModel.PART_ALL);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position, List<Object> payloads) {
+        if (mSnapshot != null || payloads.isEmpty() || viewHolder.mRowModel == null) {
+            onBindViewHolder(viewHolder, position);
+            return;
+        }
+        int parts = 0;
+        for (Object payload : payloads) {
+            if (!(payload instanceof Integer)) {
+                onBindViewHolder(viewHolder, position);
+                return;
+            }
+            parts |= (Integer) payload;
+        }
+        Conversation conversation = getBoundItem(position);
+        ConversationRowModel model = mRowModels.get(conversation);
+
+        // Payloads name the attributes that changed; the diff covers changes recorded late
+        bindRowModel(viewHolder, conversation, model, parts | model.diff(viewHolder.mRowModel));
+    }
+
+    private Conversation getBoundItem(int position) {
+        if (isFiltered()) return mFilteredConversations.get(position);
         mQueryController.updateBoundPosition(position);
-        Conversation conversation = mQueryController.getItem(position);
-        Message lastMessage = conversation.getLastMessage();
-        Context context = viewHolder.itemView.getContext();
+        return mQueryController.getItem(position);
+    }
 
+    /**
+     * Binds the given row parts of a row model to a ViewHolder, leaving the other views untouched.
+     */
+    private void bindRowModel(ViewHolder viewHolder, Conversation conversation, ConversationRowModel model, int parts) {
         viewHolder.setConversation(conversation);
-        HashSet<Identity> participants = new HashSet<>(conversation.getParticipants());
-        participants.remove(mLayerClient.getAuthenticatedUser());
+        viewHolder.mRowModel = model;
+        viewHolder.itemView.setActivated(mSelection.isSelected(conversation));
+        mTimeLabelScheduler.track(viewHolder, model.getTimeLabelExpiresAt());
 
-        // Add the position to the positions map for Identity updates
-        mIdentityEventListener.addIdentityPosition(position, participants);
+        if ((parts & ConversationRowModel.PART_PARTICIPANTS) != 0) {
+            viewHolder.mAvatarCluster.setParticipants(model.getParticipants());
+        }
+        if ((parts & ConversationRowModel.PART_TITLE) != 0) {
+            viewHolder.mTitleView.setText(model.getTitle());
+        }
+        if ((parts & ConversationRowModel.PART_UNREAD) != 0) {
+            viewHolder.applyStyle(model.isUnread());
+        }
+        if ((parts & ConversationRowModel.PART_LAST_MESSAGE) != 0) {
+            viewHolder.mMessageView.setText(model.getPreview());
+        }
+        if ((parts & ConversationRowModel.PART_TIME) != 0) {
+            viewHolder.mTimeView.setText(model.getTimeLabel());
+        }
+    }
 
-        viewHolder.mAvatarCluster.setParticipants(participants);
-        viewHolder.mTitleView.setText(Util.getConversationTitle(mLayerClient, conversation));
-        viewHolder.applyStyle(conversation.getTotalUnreadMessageCount() > 0);
+    @Override
+    public void onViewRecycled(ViewHolder viewHolder) {
+        mTimeLabelScheduler.untrack(viewHolder);
+    }
 
-        if (lastMessage == null) {
-            viewHolder.mMessageView.setText(null);
-            viewHolder.mTimeView.setText(null);
-        } else {
-            viewHolder.mMessageView.setText(this.getLastMessageString(context, lastMessage));
-            if (lastMessage.getReceivedAt() == null) {
-                viewHolder.mTimeView.setText(null);
-            } else {
-                viewHolder.mTimeView.setText(Util.formatTime(context, lastMessage.getReceivedAt(), mTimeFormat, mDateFormat));
-            }
-        }
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mTimeLabelScheduler.start(recyclerView.getContext());
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        mTimeLabelScheduler.stop();
     }
 
     @Override
     public int getItemCount() {
+        if (isFiltered()) return mFilteredConversations.size();
+        if (mSnapshot != null) return mSnapshot.size();
         return mQueryController.getItemCount();
     }
 
     @Override
     public Integer getPosition(Conversation conversation) {
+        if (isFiltered()) return mFilteredConversations.indexOf(conversation);
         return mQueryController.getPosition(conversation);
     }
 
     @Override
     public Integer getPosition(Conversation conversation, int lastPosition) {
+        if (isFiltered()) {
+            if (lastPosition >= 0 && lastPosition < mFilteredConversations.size()
+                    && conversation.equals(mFilteredConversations.get(lastPosition))) {
+                return lastPosition;
+            }
+            return mFilteredConversations.indexOf(conversation);
+        }
         return mQueryController.getPosition(conversation, lastPosition);
     }
 
     @Override
     public Conversation getItem(int position) {
+        // Read each field once, since background prefetches call this while the UI thread swaps them
+        List<Conversation> filtered = mFilteredConversations;
+        if (filtered != null) return filtered.get(position);
+        // Snapshot rows have no live Conversation
+        if (mSnapshot != null) return null;
         return mQueryController.getItem(position);
     }
 
@@ -232,6 +810,26 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
         return ((ViewHolder) viewHolder).getConversation();
     }
 
+    /**
+     * Warms the avatar image cache for rows about to scroll into view, at the sizes their avatars
+     * will request and at lower priority than visible loads.
+     *
+     * @param template     A bound ViewHolder, whose avatar has the size of every row's avatar.
+     * @param fromPosition First position to prefetch, inclusive.
+     * @param toPosition   Last position to prefetch, exclusive.
+     */
+    public void prefetchAvatars(RecyclerView.ViewHolder template, int fromPosition, int toPosition) {
+        AtlasAvatar avatar = ((ViewHolder) template).mAvatarCluster;
+        Identity authenticatedUser = mLayerClient.getAuthenticatedUser();
+        for (int position = Math.max(0, fromPosition); position < Math.min(toPosition, getItemCount()); position++) {
+            Conversation conversation = getItem(position);
+            if (conversation == null) continue;
+            Set<Identity> participants = new HashSet<>(conversation.getParticipants());
+            participants.remove(authenticatedUser);
+            avatar.prefetch(participants);
+        }
+    }
+
     //==============================================================================================
     // Util methods
     //==============================================================================================
@@ -241,14 +839,14 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
 
         for (AtlasCellFactory cellFactory : cellFactories) {
             if (cellFactory.isType(message)) {
-                return cellFactory.getPreviewText(context, message);
+                return cellFactory.getPreviewText(context, message, PREVIEW_MAX_CHARS);
             }
         }
 
         return GenericCellFactory.getPreview(context, message);
     }
 
-    private Set<AtlasCellFactory> getDefaultCellFactories() {
+    private synchronized Set<AtlasCellFactory> getDefaultCellFactories() {
         if (mDefaultCellFactories == null) {
             mDefaultCellFactories = new LinkedHashSet<>();
         }
@@ -266,47 +864,93 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
     // UI update callbacks
     //==============================================================================================
 
+    // While filtered, rows are refreshed from the search index rather than by Query position.
+    // Notifications go through the BatchOperationRunner, which merges changes while a batch runs.
+
     @Override
     public void onQueryDataSetChanged(RecyclerViewController controller) {
-        syncInitialMessages(0, getItemCount());
-        notifyDataSetChanged();
+        if (appendLoadedPage()) return;
+        syncInitialMessages(0, mQueryController.getItemCount());
+        if (swapSnapshotToLive() || isFiltered()) return;
+        mBatchRunner.notifyDataSetChanged();
+    }
+
+    /**
+     * Reports a page loaded by loadNextPage() as a range insert after the previous rows.  The
+     * re-run Query returns the previous rows unchanged unless rows moved while the page loaded,
+     * which the row at the page boundary reveals.
+     *
+     * @return `true` if the page was appended, or `false` if the whole data set must be refreshed.
+     */
+    private boolean appendLoadedPage() {
+        int from = mPageLoadFrom;
+        Conversation boundary = mPageLoadBoundary;
+        mPageLoadFrom = -1;
+        mPageLoadBoundary = null;
+        if (from < 0 || mSnapshot != null || isFiltered()) return false;
+        int count = mQueryController.getItemCount();
+        if (count < from) return false;
+        if (from > 0 && (boundary == null || !boundary.equals(mQueryController.getItem(from - 1)))) return false;
+        if (count == from) return true;
+        syncInitialMessages(from, count - from);
+        mBatchRunner.notifyItemRangeInserted(from, count - from);
+        return true;
     }
 
     @Override
     public void onQueryItemChanged(RecyclerViewController controller, int position) {
-        notifyItemChanged(position);
+        if (swapSnapshotToLive() || isFiltered()) return;
+        mBatchRunner.notifyItemRangeChanged(position, 1, getChangedParts(position));
     }
 
     @Override
     public void onQueryItemRangeChanged(RecyclerViewController controller, int positionStart, int itemCount) {
-        notifyItemRangeChanged(positionStart, itemCount);
+        if (swapSnapshotToLive() || isFiltered()) return;
+        for (int i = 0; i < itemCount; i++) {
+            mBatchRunner.notifyItemRangeChanged(positionStart + i, 1, getChangedParts(positionStart + i));
+        }
+    }
+
+    /**
+     * Returns the row parts touched since the item at the given position was last notified, as a
+     * change payload.  A `null` payload rebinds the whole row.
+     */
+    private Integer getChangedParts(int position) {
+        Conversation conversation = mQueryController.getItem(position);
+        if (conversation == null) return null;
+        return mRowModels.takeChangedParts(conversation.getId());
     }
 
     @Override
     public void onQueryItemInserted(RecyclerViewController controller, int position) {
         syncInitialMessages(position, 1);
-        notifyItemInserted(position);
+        if (swapSnapshotToLive() || isFiltered()) return;
+        mBatchRunner.notifyItemRangeInserted(position, 1);
     }
 
     @Override
     public void onQueryItemRangeInserted(RecyclerViewController controller, int positionStart, int itemCount) {
         syncInitialMessages(positionStart, itemCount);
-        notifyItemRangeInserted(positionStart, itemCount);
+        if (swapSnapshotToLive() || isFiltered()) return;
+        mBatchRunner.notifyItemRangeInserted(positionStart, itemCount);
     }
 
     @Override
     public void onQueryItemRemoved(RecyclerViewController controller, int position) {
-        notifyItemRemoved(position);
+        if (swapSnapshotToLive() || isFiltered()) return;
+        mBatchRunner.notifyItemRangeRemoved(position, 1);
     }
 
     @Override
     public void onQueryItemRangeRemoved(RecyclerViewController controller, int positionStart, int itemCount) {
-        notifyItemRangeRemoved(positionStart, itemCount);
+        if (swapSnapshotToLive() || isFiltered()) return;
+        mBatchRunner.notifyItemRangeRemoved(positionStart, itemCount);
     }
 
     @Override
     public void onQueryItemMoved(RecyclerViewController controller, int fromPosition, int toPosition) {
-        notifyItemMoved(fromPosition, toPosition);
+        if (swapSnapshotToLive() || isFiltered()) return;
+        mBatchRunner.notifyItemMoved(fromPosition, toPosition);
     }
 
 
@@ -326,6 +970,7 @@ public class AtlasConversationsAdapter extends RecyclerView.Adapter<AtlasConvers
 
         protected ConversationStyle conversationStyle;
         protected Conversation mConversation;
+        protected ConversationRowModel mRowModel;
         protected OnClickListener mClickListener;
 
         public ViewHolder(View itemView, ConversationStyle conversationStyle) {
@@ -9,17 +9,24 @@ import android.util.DisplayMetrics;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.Space;
 import android.widget.TextView;
 
 import com.layer.atlas.AtlasAvatar;
 import com.layer.atlas.R;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
+import com.layer.atlas.messagetypes.AttachmentSender;
 import com.layer.atlas.messagetypes.MessageStyle;
+import com.layer.atlas.util.BatchOperationRunner;
 import com.layer.atlas.util.IdentityRecyclerViewEventListener;
+import com.layer.atlas.util.ItemSelection;
+import com.layer.atlas.util.TimeLabelScheduler;
 import com.layer.atlas.util.Util;
 import com.layer.sdk.LayerClient;
+import com.layer.sdk.messaging.Conversation;
 import com.layer.sdk.messaging.Identity;
 import com.layer.sdk.messaging.Message;
 import com.layer.sdk.query.ListViewController;
@@ -27,11 +34,14 @@ import com.layer.sdk.query.Query;
 import com.layer.sdk.query.RecyclerViewController;
 import com.squareup.picasso.Picasso;
 
+import java.io.File;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -57,10 +67,15 @@ import java.util.Set;
  * CellFactory.createCellHolder().  After creating a new CellHolder (or reusing an available one),
  * the CellHolder is rendered in the UI with Message data via CellFactory.bindCellHolder().
  *
+ * Attachments still being built by an AttachmentSender for this adapter's Conversation are shown
+ * as placeholder rows with progress after the last Message, until they are sent or cancelled.
+ *
  * @see AtlasCellFactory
  */
-public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdapter.ViewHolder> implements AtlasBaseAdapter<Message>, RecyclerViewController.Callback {
+public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdapter.ViewHolder> implements AtlasBaseAdapter<Message>, RecyclerViewController.Callback, AttachmentSender.PendingSendListener {
     private final static int VIEW_TYPE_FOOTER = 0;
+    private final static int VIEW_TYPE_PENDING = 1;
+    private final static Object PAYLOAD_PENDING_PROGRESS = new Object();
 
     protected final LayerClient mLayerClient;
     protected final Picasso mPicasso;
@@ -70,9 +85,12 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
     protected OnMessageAppendListener mAppendListener;
     protected final DisplayMetrics mDisplayMetrics;
     private final IdentityRecyclerViewEventListener mIdentityEventListener;
+    private final TimeLabelScheduler mTimeLabelScheduler;
+    private final ItemSelection<Message> mSelection;
+    private final BatchOperationRunner mBatchRunner;
 
     // Cells
-    protected int mViewTypeCount = VIEW_TYPE_FOOTER;
+    protected int mViewTypeCount = VIEW_TYPE_PENDING;
     protected final Set<AtlasCellFactory> mCellFactories = new LinkedHashSet<AtlasCellFactory>();
     protected final Map<Integer, CellType> mCellTypesByViewType = new HashMap<Integer, CellType>();
     protected final Map<AtlasCellFactory, Integer> mMyViewTypesByCell = new HashMap<AtlasCellFactory, Integer>();
@@ -83,6 +101,10 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
     private final DateFormat mDateFormat;
     private final DateFormat mTimeFormat;
 
+    // Pending sends, shown in order between the last Message and the footer
+    private Conversation mConversation;
+    private final List<AttachmentSender.PendingSend> mPendingSends = new ArrayList<AttachmentSender.PendingSend>();
+
     private View mFooterView;
     private int mFooterPosition = 0;
 
@@ -119,6 +141,10 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
 
         mIdentityEventListener = new IdentityRecyclerViewEventListener(this);
         mLayerClient.registerEventListener(mIdentityEventListener);
+        mTimeLabelScheduler = new TimeLabelScheduler(this, null);
+        mSelection = new ItemSelection<>(this, null);
+        mBatchRunner = new BatchOperationRunner(this);
+        AttachmentSender.registerPendingSendListener(this);
     }
 
     /**
@@ -132,6 +158,23 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
         return this;
     }
 
+    /**
+     * Sets the Conversation whose pending attachment sends are shown after its Messages.  Should
+     * match the Conversation of this adapter's Query.
+     *
+     * @param conversation Conversation displayed by this AtlasMessagesAdapter.
+     * @return This AtlasMessagesAdapter.
+     */
+    public AtlasMessagesAdapter setConversation(Conversation conversation) {
+        mConversation = conversation;
+        if (!mPendingSends.isEmpty()) {
+            mPendingSends.clear();
+            mFooterPosition = mQueryController.getItemCount();
+            mBatchRunner.notifyDataSetChanged();
+        }
+        return this;
+    }
+
     /**
      * Refreshes this adapter by re-running the underlying Query.
      */
@@ -143,7 +186,58 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
      * Performs cleanup when the Activity/Fragment using the adapter is destroyed.
      */
     public void onDestroy() {
+        AttachmentSender.unregisterPendingSendListener(this);
         mLayerClient.unregisterEventListener(mIdentityEventListener);
+        mTimeLabelScheduler.stop();
+    }
+
+    //==============================================================================================
+    // Selection and batch operations
+    //==============================================================================================
+
+    /**
+     * Returns this adapter's multi-select state.  While selection is active, tapping a Message
+     * toggles its selection.
+     *
+     * @return This adapter's ItemSelection.
+     */
+    public ItemSelection<Message> getSelection() {
+        return mSelection;
+    }
+
+    /**
+     * Deletes the selected Messages on a background thread and leaves selection mode.
+     *
+     * @param deletionMode Whether to delete for all participants or only on this user's devices.
+     * @param callback     Alerted on the UI thread once all Messages were processed, or `null`.
+     */
+    public void deleteSelected(final LayerClient.DeletionMode deletionMode, BatchOperationRunner.Callback callback) {
+        runOnSelected(new BatchOperationRunner.Operation<Message>() {
+            @Override
+            public void apply(Message message) {
+                message.delete(deletionMode);
+            }
+        }, callback);
+    }
+
+    /**
+     * Marks the selected Messages as read on a background thread and leaves selection mode.
+     *
+     * @param callback Alerted on the UI thread once all Messages were processed, or `null`.
+     */
+    public void markSelectedAsRead(BatchOperationRunner.Callback callback) {
+        runOnSelected(new BatchOperationRunner.Operation<Message>() {
+            @Override
+            public void apply(Message message) {
+                message.markAsRead();
+            }
+        }, callback);
+    }
+
+    private void runOnSelected(BatchOperationRunner.Operation<Message> operation, BatchOperationRunner.Callback callback) {
+        List<Message> selected = mSelection.getSelected();
+        mSelection.setActive(false);
+        mBatchRunner.run(selected, operation, callback);
     }
 
     public AtlasMessagesAdapter setRecyclerView(RecyclerView recyclerView) {
@@ -231,6 +325,7 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
     @Override
     public int getItemViewType(int position) {
         if (mFooterView != null && position == mFooterPosition) return VIEW_TYPE_FOOTER;
+        if (getPendingSend(position) != null) return VIEW_TYPE_PENDING;
         Message message = getItem(position);
         Identity authenticatedUser = mLayerClient.getAuthenticatedUser();
         boolean isMe = authenticatedUser != null && authenticatedUser.equals(message.getSender());
@@ -246,6 +341,9 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
         if (viewType == VIEW_TYPE_FOOTER) {
             return new ViewHolder(mLayoutInflater.inflate(ViewHolder.RESOURCE_ID_FOOTER, parent, false));
         }
+        if (viewType == VIEW_TYPE_PENDING) {
+            return new PendingViewHolder(mLayoutInflater.inflate(PendingViewHolder.RESOURCE_ID_PENDING, parent, false));
+        }
 
         CellType cellType = mCellTypesByViewType.get(viewType);
         int rootResId = cellType.mMe ? CellViewHolder.RESOURCE_ID_ME : CellViewHolder.RESOURCE_ID_THEM;
@@ -258,15 +356,74 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
     @Override
     public void onBindViewHolder(ViewHolder viewHolder, int position) {
         mQueryController.updateBoundPosition(position);
+        mIdentityEventListener.removeIdentities(viewHolder);
+        mTimeLabelScheduler.untrack(viewHolder);
         if (mFooterView != null && position == mFooterPosition) {
             // Footer
+            viewHolder.itemView.setActivated(false);
             bindFooter(viewHolder);
+        } else if (viewHolder instanceof PendingViewHolder) {
+            // Pending send
+            bindPendingViewHolder((PendingViewHolder) viewHolder, position);
         } else {
             // Cell
             bindCellViewHolder((CellViewHolder) viewHolder, position);
         }
     }
 
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position, List<Object> payloads) {
+        if (viewHolder instanceof PendingViewHolder && !payloads.isEmpty()) {
+            bindPendingProgress((PendingViewHolder) viewHolder);
+            return;
+        }
+        if (payloads.isEmpty() || !(viewHolder instanceof CellViewHolder)) {
+            onBindViewHolder(viewHolder, position);
+            return;
+        }
+        for (Object payload : payloads) {
+            if (payload != IdentityRecyclerViewEventListener.PAYLOAD_IDENTITY) {
+                onBindViewHolder(viewHolder, position);
+                return;
+            }
+        }
+        bindSenderIdentity((CellViewHolder) viewHolder);
+    }
+
+    /**
+     * Refreshes only the sender name and avatar of a bound cell after its sender's Identity
+     * changed.  Visibility stays as the last full bind decided it.
+     */
+    private void bindSenderIdentity(CellViewHolder viewHolder) {
+        Identity sender = viewHolder.mMessage.getSender();
+        if (viewHolder.mUserName != null && viewHolder.mUserName.getVisibility() == View.VISIBLE) {
+            if (sender != null) {
+                viewHolder.mUserName.setText(Util.getDisplayName(sender));
+            } else {
+                viewHolder.mUserName.setText(R.string.atlas_message_item_unknown_user);
+            }
+        }
+        if (viewHolder.mAvatar != null && viewHolder.mAvatar.getVisibility() == View.VISIBLE) {
+            viewHolder.mAvatar.setParticipants(sender);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(ViewHolder viewHolder) {
+        mIdentityEventListener.removeIdentities(viewHolder);
+        mTimeLabelScheduler.untrack(viewHolder);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mTimeLabelScheduler.start(recyclerView.getContext());
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        mTimeLabelScheduler.stop();
+    }
+
     public void bindFooter(ViewHolder viewHolder) {
         viewHolder.mRoot.removeAllViews();
         if (mFooterView.getParent() != null) {
@@ -275,9 +432,29 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
         viewHolder.mRoot.addView(mFooterView);
     }
 
+    private void bindPendingViewHolder(PendingViewHolder viewHolder, int position) {
+        viewHolder.mPendingSend = getPendingSend(position);
+        Object source = viewHolder.mPendingSend.getSource();
+        int size = viewHolder.itemView.getResources().getDimensionPixelSize(R.dimen.atlas_message_item_pending_size);
+        if (source instanceof Uri) {
+            mPicasso.load((Uri) source).resize(size, size).centerCrop().into(viewHolder.mImage);
+        } else if (source instanceof File) {
+            mPicasso.load((File) source).resize(size, size).centerCrop().into(viewHolder.mImage);
+        } else {
+            mPicasso.cancelRequest(viewHolder.mImage);
+            viewHolder.mImage.setImageDrawable(null);
+        }
+        bindPendingProgress(viewHolder);
+    }
+
+    private void bindPendingProgress(PendingViewHolder viewHolder) {
+        viewHolder.mProgress.setProgress(Math.round(viewHolder.mPendingSend.getProgress() * viewHolder.mProgress.getMax()));
+    }
+
     public void bindCellViewHolder(CellViewHolder viewHolder, int position) {
         Message message = getItem(position);
         viewHolder.mMessage = message;
+        viewHolder.itemView.setActivated(mSelection.isSelected(message));
         CellType cellType = mCellTypesByViewType.get(viewHolder.getItemViewType());
         boolean oneOnOne = message.getConversation().getParticipants().size() == 2;
 
@@ -296,6 +473,7 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
             String timeBarTimeText = mTimeFormat.format(receivedAt.getTime());
             viewHolder.mTimeGroupTime.setText(" " + timeBarTimeText);
             viewHolder.mTimeGroup.setVisibility(View.VISIBLE);
+            mTimeLabelScheduler.track(viewHolder, Util.getTimeLabelExpiry(receivedAt));
             viewHolder.mClusterSpaceGap.setVisibility(View.GONE);
         } else if (cluster.mClusterWithPrevious == ClusterType.LESS_THAN_MINUTE) {
             // Same sender with < 1m gap
@@ -329,8 +507,8 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
                 }
                 viewHolder.mUserName.setVisibility(View.VISIBLE);
 
-                // Add the position to the positions map for Identity updates
-                mIdentityEventListener.addIdentityPosition(position, Collections.singleton(sender));
+                // Rebind this row when the sender's Identity changes
+                mIdentityEventListener.addIdentities(viewHolder, Collections.singleton(sender));
             } else {
                 viewHolder.mUserName.setVisibility(View.GONE);
             }
@@ -344,8 +522,8 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
                 viewHolder.mAvatar.setVisibility(View.VISIBLE);
                 viewHolder.mAvatar.setParticipants(message.getSender());
 
-                // Add the position to the positions map for Identity updates
-                mIdentityEventListener.addIdentityPosition(position, Collections.singleton(message.getSender()));
+                // Rebind this row when the sender's Identity changes
+                mIdentityEventListener.addIdentities(viewHolder, Collections.singleton(message.getSender()));
             } else {
                 // Invisible for clustered messages to preserve proper spacing
                 viewHolder.mAvatar.setVisibility(View.INVISIBLE);
@@ -414,7 +592,7 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
 
     @Override
     public int getItemCount() {
-        return mQueryController.getItemCount() + ((mFooterView == null) ? 0 : 1);
+        return mQueryController.getItemCount() + mPendingSends.size() + ((mFooterView == null) ? 0 : 1);
     }
 
     @Override
@@ -430,9 +608,18 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
     @Override
     public Message getItem(int position) {
         if (mFooterView != null && position == mFooterPosition) return null;
+        if (getPendingSend(position) != null) return null;
         return mQueryController.getItem(position);
     }
 
+    /**
+     * Returns the PendingSend shown at the given position, or `null` if there is none.
+     */
+    private AttachmentSender.PendingSend getPendingSend(int position) {
+        int index = position - mQueryController.getItemCount();
+        return (index >= 0 && index < mPendingSends.size()) ? mPendingSends.get(index) : null;
+    }
+
     @Override
     public Message getItem(RecyclerView.ViewHolder viewHolder) {
         if (!(viewHolder instanceof CellViewHolder)) return null;
@@ -532,26 +719,26 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
 
     @Override
     public void onQueryDataSetChanged(RecyclerViewController controller) {
-        mFooterPosition = mQueryController.getItemCount();
+        mFooterPosition = mQueryController.getItemCount() + mPendingSends.size();
         updateRecipientStatusPosition();
-        notifyDataSetChanged();
+        mBatchRunner.notifyDataSetChanged();
     }
 
     @Override
     public void onQueryItemChanged(RecyclerViewController controller, int position) {
-        notifyItemChanged(position);
+        mBatchRunner.notifyItemRangeChanged(position, 1, null);
     }
 
     @Override
     public void onQueryItemRangeChanged(RecyclerViewController controller, int positionStart, int itemCount) {
-        notifyItemRangeChanged(positionStart, itemCount);
+        mBatchRunner.notifyItemRangeChanged(positionStart, itemCount, null);
     }
 
     @Override
     public void onQueryItemInserted(RecyclerViewController controller, int position) {
         mFooterPosition++;
         updateRecipientStatusPosition();
-        notifyItemInserted(position);
+        mBatchRunner.notifyItemRangeInserted(position, 1);
         if (mAppendListener != null && (position + 1) == getItemCount()) {
             mAppendListener.onMessageAppend(this, getItem(position));
         }
@@ -561,7 +748,7 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
     public void onQueryItemRangeInserted(RecyclerViewController controller, int positionStart, int itemCount) {
         mFooterPosition += itemCount;
         updateRecipientStatusPosition();
-        notifyItemRangeInserted(positionStart, itemCount);
+        mBatchRunner.notifyItemRangeInserted(positionStart, itemCount);
         int positionEnd = positionStart + itemCount;
         if (mAppendListener != null && (positionEnd + 1) == getItemCount()) {
             mAppendListener.onMessageAppend(this, getItem(positionEnd));
@@ -572,20 +759,53 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
     public void onQueryItemRemoved(RecyclerViewController controller, int position) {
         mFooterPosition--;
         updateRecipientStatusPosition();
-        notifyItemRemoved(position);
+        mBatchRunner.notifyItemRangeRemoved(position, 1);
     }
 
     @Override
     public void onQueryItemRangeRemoved(RecyclerViewController controller, int positionStart, int itemCount) {
         mFooterPosition -= itemCount;
         updateRecipientStatusPosition();
-        notifyItemRangeRemoved(positionStart, itemCount);
+        mBatchRunner.notifyItemRangeRemoved(positionStart, itemCount);
     }
 
     @Override
     public void onQueryItemMoved(RecyclerViewController controller, int fromPosition, int toPosition) {
         updateRecipientStatusPosition();
-        notifyItemMoved(fromPosition, toPosition);
+        mBatchRunner.notifyItemMoved(fromPosition, toPosition);
+    }
+
+
+    //==============================================================================================
+    // Pending sends
+    //==============================================================================================
+
+    @Override
+    public void onPendingSendStarted(AttachmentSender.PendingSend pendingSend) {
+        Conversation conversation = pendingSend.getConversation();
+        if (mConversation == null || conversation == null || !mConversation.getId().equals(conversation.getId())) {
+            return;
+        }
+        int position = mQueryController.getItemCount() + mPendingSends.size();
+        mPendingSends.add(pendingSend);
+        mFooterPosition++;
+        mBatchRunner.notifyItemRangeInserted(position, 1);
+    }
+
+    @Override
+    public void onPendingSendProgress(AttachmentSender.PendingSend pendingSend, float progress) {
+        int index = mPendingSends.indexOf(pendingSend);
+        if (index < 0) return;
+        mBatchRunner.notifyItemRangeChanged(mQueryController.getItemCount() + index, 1, PAYLOAD_PENDING_PROGRESS);
+    }
+
+    @Override
+    public void onPendingSendFinished(AttachmentSender.PendingSend pendingSend) {
+        int index = mPendingSends.indexOf(pendingSend);
+        if (index < 0) return;
+        mPendingSends.remove(index);
+        mFooterPosition--;
+        mBatchRunner.notifyItemRangeRemoved(mQueryController.getItemCount() + index, 1);
     }
 
 
@@ -605,6 +825,22 @@ public class AtlasMessagesAdapter extends RecyclerView.Adapter<AtlasMessagesAdap
         }
     }
 
+    static class PendingViewHolder extends ViewHolder {
+        public final static int RESOURCE_ID_PENDING = R.layout.atlas_message_item_pending;
+
+        protected AttachmentSender.PendingSend mPendingSend;
+
+        // View cache
+        protected ImageView mImage;
+        protected ProgressBar mProgress;
+
+        public PendingViewHolder(View itemView) {
+            super(itemView);
+            mImage = (ImageView) itemView.findViewById(R.id.cell_image);
+            mProgress = (ProgressBar) itemView.findViewById(R.id.cell_progress);
+        }
+    }
+
     static class CellViewHolder extends ViewHolder {
         public final static int RESOURCE_ID_ME = R.layout.atlas_message_item_me;
         public final static int RESOURCE_ID_THEM = R.layout.atlas_message_item_them;
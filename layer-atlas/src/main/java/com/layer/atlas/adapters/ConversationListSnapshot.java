@@ -0,0 +1,215 @@
+package com.layer.atlas.adapters;
+
+import com.layer.atlas.AtlasAvatar;
+import com.layer.atlas.util.Log;
+import com.layer.atlas.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Display values for the first screen of an AtlasConversationsAdapter, stored in a compact binary
+ * file so the list can render instantly on cold start before the Conversation Query completes.
+ */
+public final class ConversationListSnapshot {
+    private static final int MAGIC = 0x41544c53; // "ATLS"
+    private static final int VERSION = 1;
+    private static final int MAX_STRING_LENGTH = 512;
+
+    private final long mWrittenAt;
+    private final List<Row> mRows;
+
+    public ConversationListSnapshot(List<Row> rows) {
+        this(System.currentTimeMillis(), rows);
+    }
+
+    private ConversationListSnapshot(long writtenAt, List<Row> rows) {
+        mWrittenAt = writtenAt;
+        mRows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Returns the wall-clock time this snapshot was taken at.
+     */
+    public long getWrittenAt() {
+        return mWrittenAt;
+    }
+
+    public List<Row> getRows() {
+        return mRows;
+    }
+
+    public int size() {
+        return mRows.size();
+    }
+
+    /**
+     * Reads a snapshot previously written with write().  Call from a background thread.
+     *
+     * @param file File to read.
+     * @return The snapshot, or `null` if the file is missing, unreadable, or of another version.
+     */
+    public static ConversationListSnapshot read(File file) {
+        if (!file.exists()) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            long writtenAt = in.readLong();
+            int rowCount = in.readInt();
+            List<Row> rows = new ArrayList<>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                String conversationId = in.readUTF();
+                String title = in.readUTF();
+                String preview = readNullableString(in);
+                String timeLabel = readNullableString(in);
+                long lastMessageReceivedAt = in.readLong();
+                boolean unread = in.readBoolean();
+                int avatarCount = in.readByte();
+                List<AtlasAvatar.AvatarKey> avatarKeys = new ArrayList<>(avatarCount);
+                for (int j = 0; j < avatarCount; j++) {
+                    avatarKeys.add(new AtlasAvatar.AvatarKey(in.readUTF(), readNullableString(in)));
+                }
+                rows.add(new Row(conversationId, title, preview, timeLabel, lastMessageReceivedAt, unread, avatarKeys));
+            }
+            return new ConversationListSnapshot(writtenAt, rows);
+        } catch (IOException e) {
+            if (Log.isLoggable(Log.WARN)) {
+                Log.w("Failed to read conversation list snapshot", e);
+            }
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes this snapshot to the given file, replacing it atomically.  Performs disk I/O, so call
+     * from a background thread.
+     *
+     * @param file File to write.
+     * @return `true` if the snapshot was written, or `false` otherwise.
+     */
+    public boolean write(File file) {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mWrittenAt);
+            out.writeInt(mRows.size());
+            for (Row row : mRows) {
+                out.writeUTF(row.mConversationId);
+                out.writeUTF(truncate(row.mTitle));
+                writeNullableString(out, row.mPreview);
+                writeNullableString(out, row.mTimeLabel);
+                out.writeLong(row.mLastMessageReceivedAt);
+                out.writeBoolean(row.mUnread);
+                out.writeByte(row.mAvatarKeys.size());
+                for (AtlasAvatar.AvatarKey key : row.mAvatarKeys) {
+                    out.writeUTF(key.getInitials());
+                    writeNullableString(out, key.getAvatarImageUrl());
+                }
+            }
+            out.close();
+            out = null;
+            return temp.renameTo(file);
+        } catch (IOException e) {
+            if (Log.isLoggable(Log.WARN)) {
+                Log.w("Failed to write conversation list snapshot", e);
+            }
+            return false;
+        } finally {
+            closeQuietly(out);
+            if (temp.exists()) temp.delete();
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(truncate(value));
+    }
+
+    private static String truncate(String value) {
+        if (value == null) return "";
+        return Util.truncate(value, MAX_STRING_LENGTH);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Display values for one snapshot row.
+     */
+    public static final class Row {
+        private final String mConversationId;
+        private final String mTitle;
+        private final String mPreview;
+        private final String mTimeLabel;
+        private final long mLastMessageReceivedAt;
+        private final boolean mUnread;
+        private final List<AtlasAvatar.AvatarKey> mAvatarKeys;
+
+        public Row(String conversationId, String title, String preview, String timeLabel, long lastMessageReceivedAt, boolean unread, List<AtlasAvatar.AvatarKey> avatarKeys) {
+            mConversationId = conversationId;
+            mTitle = (title == null) ? "" : title;
+            mPreview = preview;
+            mTimeLabel = timeLabel;
+            mLastMessageReceivedAt = lastMessageReceivedAt;
+            mUnread = unread;
+            mAvatarKeys = Collections.unmodifiableList(avatarKeys);
+        }
+
+        public String getConversationId() {
+            return mConversationId;
+        }
+
+        public String getTitle() {
+            return mTitle;
+        }
+
+        public String getPreview() {
+            return mPreview;
+        }
+
+        public String getTimeLabel() {
+            return mTimeLabel;
+        }
+
+        /**
+         * Returns the last Message's receivedAt time in milliseconds, or -1 if unknown.
+         */
+        public long getLastMessageReceivedAt() {
+            return mLastMessageReceivedAt;
+        }
+
+        public boolean isUnread() {
+            return mUnread;
+        }
+
+        public List<AtlasAvatar.AvatarKey> getAvatarKeys() {
+            return mAvatarKeys;
+        }
+    }
+}
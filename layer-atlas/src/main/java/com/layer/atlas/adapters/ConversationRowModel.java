@@ -0,0 +1,123 @@
+package com.layer.atlas.adapters;
+
+import android.net.Uri;
+
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.Identity;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * Precomputed, immutable display values for one AtlasConversationsAdapter row.  Row models are
+ * built off the main thread so that binding only has to assign values to views.
+ *
+ * @see ConversationRowModelCache
+ */
+public final class ConversationRowModel {
+    // Row parts, used as RecyclerView payloads for partial rebinds
+    public static final int PART_TITLE = 1;
+    public static final int PART_LAST_MESSAGE = 1 << 1;
+    public static final int PART_UNREAD = 1 << 2;
+    public static final int PART_PARTICIPANTS = 1 << 3;
+    public static final int PART_TIME = 1 << 4;
+    public static final int PART_ALL = PART_TITLE | PART_LAST_MESSAGE | PART_UNREAD | PART_PARTICIPANTS | PART_TIME;
+
+    private final Conversation mConversation;
+    private final Uri mConversationId;
+    private final String mTitle;
+    private final String mPreview;
+    private final String mTimeLabel;
+    private final Date mLastMessageReceivedAt;
+    private final long mTimeLabelExpiresAt;
+    private final Set<Identity> mParticipants;
+    private final boolean mUnread;
+    private final long mGeneration;
+
+    ConversationRowModel(Conversation conversation, String title, String preview, String timeLabel, Date lastMessageReceivedAt, long timeLabelExpiresAt, Set<Identity> participants, boolean unread, long generation) {
+        mConversation = conversation;
+        mConversationId = conversation.getId();
+        mTitle = title;
+        mPreview = preview;
+        mTimeLabel = timeLabel;
+        mLastMessageReceivedAt = lastMessageReceivedAt;
+        mTimeLabelExpiresAt = timeLabelExpiresAt;
+        mParticipants = Collections.unmodifiableSet(participants);
+        mUnread = unread;
+        mGeneration = generation;
+    }
+
+    public Conversation getConversation() {
+        return mConversation;
+    }
+
+    public Uri getConversationId() {
+        return mConversationId;
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * Returns the last Message preview, or `null` if the Conversation has no Messages.
+     */
+    public String getPreview() {
+        return mPreview;
+    }
+
+    /**
+     * Returns the formatted last Message time, or `null` if there is none.
+     */
+    public String getTimeLabel() {
+        return mTimeLabel;
+    }
+
+    public Date getLastMessageReceivedAt() {
+        return mLastMessageReceivedAt;
+    }
+
+    /**
+     * Returns the wall-clock time at which the time label goes stale, or Long.MAX_VALUE if never.
+     */
+    public long getTimeLabelExpiresAt() {
+        return mTimeLabelExpiresAt;
+    }
+
+    /**
+     * Returns the Conversation's participants, excluding the authenticated user.
+     */
+    public Set<Identity> getParticipants() {
+        return mParticipants;
+    }
+
+    public boolean isUnread() {
+        return mUnread;
+    }
+
+    /**
+     * Returns the parts whose display values differ between this and the given row model.
+     *
+     * @param other Row model to compare against, or `null`.
+     * @return PART_* flags of differing parts, or PART_ALL if `other` is `null`.
+     */
+    public int diff(ConversationRowModel other) {
+        if (other == null) return PART_ALL;
+        int parts = 0;
+        if (!equal(mTitle, other.mTitle)) parts |= PART_TITLE;
+        if (!equal(mPreview, other.mPreview)) parts |= PART_LAST_MESSAGE;
+        if (!equal(mTimeLabel, other.mTimeLabel)) parts |= PART_TIME;
+        if (mUnread != other.mUnread) parts |= PART_UNREAD;
+        if (!mParticipants.equals(other.mParticipants)) parts |= PART_PARTICIPANTS;
+        return parts;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+
+    long getGeneration() {
+        return mGeneration;
+    }
+}
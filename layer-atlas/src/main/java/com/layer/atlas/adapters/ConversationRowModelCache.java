@@ -0,0 +1,305 @@
+package com.layer.atlas.adapters;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.layer.atlas.util.Util;
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.changes.LayerChange;
+import com.layer.sdk.changes.LayerChangeEvent;
+import com.layer.sdk.listeners.LayerChangeEventListener;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.Identity;
+import com.layer.sdk.messaging.LayerObject;
+import com.layer.sdk.messaging.Message;
+import com.layer.sdk.messaging.MessagePart;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds and caches ConversationRowModels.  Models are built on background threads: when the
+ * query controller caches a Conversation, and when a change event touches a Conversation or one of
+ * its participants' Identities.  Identity-driven rebuilds are announced to the Listener on the UI
+ * thread; Conversation changes are announced by the query controller, and the row parts they
+ * touched can be collected with takeChangedParts().
+ * <p>
+ * Every model carries the generation it was built at; a change event invalidates a Conversation by
+ * stamping it with a newer generation, so a model raced by a change is never handed out.  If no
+ * valid model is available at bind time, get() builds one on the calling thread.  Models whose time
+ * label has gone stale are rebuilt the same way.  A Conversation's stamp is dropped once a newer
+ * model is cached or the Conversation is deleted.
+ * <p>
+ * Updates to a Conversation's last Message or its parts, such as content finishing downloading,
+ * invalidate the row's preview and are announced to the Listener like Identity changes.
+ */
+public class ConversationRowModelCache implements LayerChangeEventListener.BackgroundThread.Weak {
+    private static final int DEFAULT_MAX_MODELS = 1000;
+
+    private final Context mContext;
+    private final LayerClient mLayerClient;
+    private final PreviewProvider mPreviewProvider;
+    private final Listener mListener;
+    private final Handler mUiThreadHandler;
+    private final DateFormat mDateFormat;
+    private final DateFormat mTimeFormat;
+
+    private final LruCache<Uri, ConversationRowModel> mModels = new LruCache<>(DEFAULT_MAX_MODELS);
+    private final Map<Uri, Long> mInvalidatedAt = new ConcurrentHashMap<>();
+    private final Map<Uri, Integer> mChangedParts = new ConcurrentHashMap<>();
+    private final AtomicLong mGeneration = new AtomicLong(0);
+    private volatile long mAllInvalidatedAt = 0;
+
+    public ConversationRowModelCache(Context context, LayerClient layerClient, PreviewProvider previewProvider, Listener listener) {
+        mContext = context;
+        mLayerClient = layerClient;
+        mPreviewProvider = previewProvider;
+        mListener = listener;
+        mUiThreadHandler = new Handler(Looper.getMainLooper());
+        mDateFormat = android.text.format.DateFormat.getDateFormat(context);
+        mTimeFormat = android.text.format.DateFormat.getTimeFormat(context);
+    }
+
+    /**
+     * Returns a current row model for the given Conversation, building it on the calling thread
+     * if no valid model is cached.
+     *
+     * @param conversation Conversation to return a row model for.
+     * @return A current row model.
+     */
+    public ConversationRowModel get(Conversation conversation) {
+        ConversationRowModel model = mModels.get(conversation.getId());
+        if (model != null && isValid(model)) return model;
+        return build(conversation);
+    }
+
+    /**
+     * Builds and caches a row model for the given Conversation if no valid one is cached.  Intended
+     * for background threads.
+     *
+     * @param conversation Conversation to prepare a row model for.
+     */
+    public void prefetch(Conversation conversation) {
+        get(conversation);
+    }
+
+    /**
+     * Returns and clears the row parts touched by Conversation updates since the last call for
+     * this Conversation.
+     *
+     * @param conversationId ID of the Conversation to return changed parts for.
+     * @return ConversationRowModel.PART_* flags, or `null` if no update has been seen.
+     */
+    public Integer takeChangedParts(Uri conversationId) {
+        return mChangedParts.remove(conversationId);
+    }
+
+    /**
+     * Formats a last Message time the same way row models do.
+     *
+     * @param receivedAt Time to format.
+     * @return The formatted time label.
+     */
+    public String formatTimeLabel(Date receivedAt) {
+        return Util.formatTime(mContext, receivedAt, mTimeFormat, mDateFormat);
+    }
+
+    /**
+     * Invalidates all cached row models, for example after the preview sources changed.
+     */
+    public void invalidateAll() {
+        mAllInvalidatedAt = mGeneration.incrementAndGet();
+    }
+
+    @Override
+    public void onChangeEvent(LayerChangeEvent layerChangeEvent) {
+        Map<Uri, Conversation> rebuildConversations = new LinkedHashMap<>();
+        Map<Uri, Conversation> rebuildIdentities = new LinkedHashMap<>();
+        Map<Uri, Conversation> rebuildPreviews = new LinkedHashMap<>();
+        Set<Identity> changedIdentities = null;
+
+        for (LayerChange change : layerChangeEvent.getChanges()) {
+            if (change.getObjectType() == LayerObject.Type.CONVERSATION) {
+                Conversation conversation = (Conversation) change.getObject();
+                Uri id = conversation.getId();
+                invalidate(id);
+                if (change.getChangeType() == LayerChange.Type.DELETE) {
+                    mModels.remove(id);
+                    mChangedParts.remove(id);
+                    mInvalidatedAt.remove(id);
+                    rebuildConversations.remove(id);
+                    rebuildPreviews.remove(id);
+                    continue;
+                }
+                if (change.getChangeType() == LayerChange.Type.UPDATE) {
+                    recordChangedParts(id, getChangedParts(change.getAttributeName()));
+                }
+                if (mModels.get(id) != null) {
+                    // Only eagerly rebuild rows that have been shown
+                    rebuildConversations.put(id, conversation);
+                }
+            } else if (change.getObjectType() == LayerObject.Type.IDENTITY) {
+                if (changedIdentities == null) changedIdentities = new HashSet<>();
+                changedIdentities.add((Identity) change.getObject());
+            } else if (change.getChangeType() == LayerChange.Type.UPDATE
+                    && (change.getObjectType() == LayerObject.Type.MESSAGE || change.getObjectType() == LayerObject.Type.MESSAGE_PART)) {
+                Message message = (change.getObjectType() == LayerObject.Type.MESSAGE)
+                        ? (Message) change.getObject() : ((MessagePart) change.getObject()).getMessage();
+                Conversation conversation = getLastMessageConversation(message, change.getAttributeName());
+                if (conversation == null) continue;
+                Uri id = conversation.getId();
+                invalidate(id);
+                if (mModels.get(id) != null) rebuildPreviews.put(id, conversation);
+            }
+        }
+
+        if (changedIdentities != null) {
+            for (ConversationRowModel model : mModels.snapshot().values()) {
+                for (Identity identity : changedIdentities) {
+                    if (!model.getParticipants().contains(identity)) continue;
+                    invalidate(model.getConversationId());
+                    rebuildIdentities.put(model.getConversationId(), model.getConversation());
+                    break;
+                }
+            }
+        }
+
+        // The query controller reports Conversation changes itself
+        for (Conversation conversation : rebuildConversations.values()) {
+            build(conversation);
+        }
+
+        // Identity and last Message changes are invisible to the query controller, so report them
+        // here, once per affected row and in a single UI thread pass
+        if (rebuildIdentities.isEmpty() && rebuildPreviews.isEmpty()) return;
+        final Map<Conversation, Integer> changed = new LinkedHashMap<>();
+        for (Conversation conversation : rebuildIdentities.values()) {
+            changed.put(conversation, ConversationRowModel.PART_TITLE | ConversationRowModel.PART_PARTICIPANTS);
+        }
+        for (Conversation conversation : rebuildPreviews.values()) {
+            Integer parts = changed.get(conversation);
+            changed.put(conversation, ConversationRowModel.PART_LAST_MESSAGE | (parts == null ? 0 : parts));
+        }
+        for (Conversation conversation : changed.keySet()) {
+            if (!rebuildConversations.containsKey(conversation.getId())) build(conversation);
+        }
+        mUiThreadHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<Conversation, Integer> entry : changed.entrySet()) {
+                    mListener.onRowModelChanged(entry.getKey(), entry.getValue());
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the Conversation whose preview an updated Message affects, or `null` if the Message
+     * is not its Conversation's last Message or the update cannot change the preview.
+     */
+    private static Conversation getLastMessageConversation(Message message, String attributeName) {
+        if (message == null || "recipientStatus".equals(attributeName)) return null;
+        Conversation conversation = message.getConversation();
+        if (conversation == null) return null;
+        Message lastMessage = conversation.getLastMessage();
+        return (lastMessage != null && lastMessage.equals(message)) ? conversation : null;
+    }
+
+    private void recordChangedParts(Uri conversationId, int parts) {
+        synchronized (mChangedParts) {
+            Integer existing = mChangedParts.get(conversationId);
+            mChangedParts.put(conversationId, (existing == null) ? parts : (existing | parts));
+        }
+    }
+
+    /**
+     * Maps a Conversation attribute name to the row parts it affects.
+     */
+    private static int getChangedParts(String attributeName) {
+        if (attributeName == null) return ConversationRowModel.PART_ALL;
+        switch (attributeName) {
+            case "totalUnreadMessageCount":
+                return ConversationRowModel.PART_UNREAD;
+            case "lastMessage":
+                return ConversationRowModel.PART_LAST_MESSAGE | ConversationRowModel.PART_TIME | ConversationRowModel.PART_UNREAD;
+            case "metadata":
+                return ConversationRowModel.PART_TITLE;
+            case "participants":
+                return ConversationRowModel.PART_TITLE | ConversationRowModel.PART_PARTICIPANTS;
+            default:
+                return 0;
+        }
+    }
+
+    private boolean isValid(ConversationRowModel model) {
+        if (model.getGeneration() < mAllInvalidatedAt) return false;
+        if (System.currentTimeMillis() >= model.getTimeLabelExpiresAt()) return false;
+        Long invalidatedAt = mInvalidatedAt.get(model.getConversationId());
+        return invalidatedAt == null || model.getGeneration() >= invalidatedAt;
+    }
+
+    private void invalidate(Uri conversationId) {
+        mInvalidatedAt.put(conversationId, mGeneration.incrementAndGet());
+    }
+
+    private ConversationRowModel build(Conversation conversation) {
+        // Take the generation first so changes arriving while building invalidate this model
+        long generation = mGeneration.incrementAndGet();
+
+        Set<Identity> participants = new HashSet<>(conversation.getParticipants());
+        participants.remove(mLayerClient.getAuthenticatedUser());
+        String title = Util.getConversationTitle(mLayerClient, conversation);
+        boolean unread = conversation.getTotalUnreadMessageCount() > 0;
+
+        Message lastMessage = conversation.getLastMessage();
+        String preview = null;
+        String timeLabel = null;
+        Date receivedAt = null;
+        long timeLabelExpiresAt = Long.MAX_VALUE;
+        if (lastMessage != null) {
+            preview = mPreviewProvider.getPreviewText(mContext, lastMessage);
+            receivedAt = lastMessage.getReceivedAt();
+            if (receivedAt != null) {
+                timeLabel = formatTimeLabel(receivedAt);
+                timeLabelExpiresAt = Util.getTimeLabelExpiry(receivedAt);
+            }
+        }
+
+        ConversationRowModel model = new ConversationRowModel(conversation, title, preview, timeLabel, receivedAt, timeLabelExpiresAt, participants, unread, generation);
+        Uri id = conversation.getId();
+        synchronized (mModels) {
+            // Never replace a newer model with one from a slower, older build
+            ConversationRowModel cached = mModels.get(id);
+            if (cached != null && cached.getGeneration() > generation) return model;
+            mModels.put(id, model);
+        }
+        // The stamp only matters to older models, and this one replaced them
+        Long invalidatedAt = mInvalidatedAt.get(id);
+        if (invalidatedAt != null && invalidatedAt < generation) mInvalidatedAt.remove(id, invalidatedAt);
+        return model;
+    }
+
+    /**
+     * Supplies last-Message preview text for row models.  May be called from background threads.
+     */
+    public interface PreviewProvider {
+        String getPreviewText(Context context, Message message);
+    }
+
+    /**
+     * Alerted on the UI thread when a shown Conversation's row model was rebuilt because one of its
+     * participants' Identities or its last Message changed.
+     */
+    public interface Listener {
+        void onRowModelChanged(Conversation conversation, int changedParts);
+    }
+}
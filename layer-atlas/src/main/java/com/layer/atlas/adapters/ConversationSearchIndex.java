@@ -0,0 +1,346 @@
+package com.layer.atlas.adapters;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.layer.atlas.util.Util;
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.changes.LayerChange;
+import com.layer.sdk.changes.LayerChangeEvent;
+import com.layer.sdk.listeners.LayerChangeEventListener;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.Identity;
+import com.layer.sdk.messaging.LayerObject;
+import com.layer.sdk.messaging.Message;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory search index over Conversation titles, metadata titles, and participant display names.
+ * The index is seeded once from a ConversationSeeder query on a background thread and then
+ * maintained incrementally from Conversation and Identity change events.
+ * <p>
+ * Each Conversation is reduced to one normalized search key (lower-cased, accents stripped,
+ * whitespace collapsed), so a search is a single scan of precomputed keys kept in last-Message
+ * order.  Updated entries are re-inserted at their ordered position, so the order never needs a
+ * full re-sort.  When a query extends the previous one, as it does while the user types, only the
+ * previous matches are scanned again.
+ */
+public class ConversationSearchIndex implements LayerChangeEventListener.BackgroundThread.Weak {
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final LayerClient mLayerClient;
+    private final ConversationSeeder mSeeder;
+    private final Listener mListener;
+    private final Handler mUiThreadHandler;
+    private final Runnable mNotifyListener = new Runnable() {
+        @Override
+        public void run() {
+            Set<Uri> changedIds;
+            synchronized (mLock) {
+                mNotifyPosted = false;
+                changedIds = new LinkedHashSet<>(mChangedIds);
+                mChangedIds.clear();
+            }
+            mListener.onSearchIndexChanged(changedIds);
+        }
+    };
+    private final ConversationSeeder.Sink mSeedSink = new ConversationSeeder.Sink() {
+        @Override
+        public boolean onSeedStarted() {
+            synchronized (mLock) {
+                if (mSeeded || mSeeding) return false;
+                mSeeding = true;
+                return true;
+            }
+        }
+
+        @Override
+        public void onSeed(List<Conversation> conversations) {
+            List<Entry> entries = new ArrayList<>(conversations.size());
+            for (Conversation conversation : conversations) {
+                entries.add(buildEntry(conversation));
+            }
+            synchronized (mLock) {
+                for (Entry entry : entries) {
+                    // Change events seen while the query ran are more recent
+                    if (mEntries.containsKey(entry.mId) || mDeletedWhileSeeding.contains(entry.mId)) continue;
+                    mEntries.put(entry.mId, entry);
+                    mOrdered.add(entry);
+                }
+                // Sorted once here; later updates keep the order by inserting in place
+                Collections.sort(mOrdered, RECENCY);
+                mVersion++;
+                mDeletedWhileSeeding.clear();
+                mSeeding = false;
+                mSeeded = true;
+            }
+            postChanged();
+        }
+    };
+
+    // Guarded by mLock
+    private final Object mLock = new Object();
+    private final Map<Uri, Entry> mEntries = new HashMap<>();
+    private final List<Entry> mOrdered = new ArrayList<>();
+    private final Set<Uri> mChangedIds = new HashSet<>();
+    private boolean mSeeding = false;
+    private boolean mSeeded = false;
+    private final Set<Uri> mDeletedWhileSeeding = new HashSet<>();
+    private long mVersion = 0;
+    private boolean mNotifyPosted = false;
+    private String mLastQuery;
+    private long mLastVersion = -1;
+    private List<Entry> mLastMatches;
+
+    public ConversationSearchIndex(LayerClient layerClient, Listener listener) {
+        this(layerClient, new ConversationSeeder(layerClient), listener);
+    }
+
+    /**
+     * Creates an index seeded by the given, possibly shared, ConversationSeeder.
+     */
+    ConversationSearchIndex(LayerClient layerClient, ConversationSeeder seeder, Listener listener) {
+        mLayerClient = layerClient;
+        mSeeder = seeder;
+        mListener = listener;
+        mUiThreadHandler = new Handler(Looper.getMainLooper());
+        mSeeder.addSink(mSeedSink);
+    }
+
+    /**
+     * Seeds the index with all Conversations on a background thread, if not already seeded.  The
+     * Listener is alerted once seeding completes.
+     */
+    public void seed() {
+        mSeeder.seed();
+    }
+
+    /**
+     * Returns Conversations whose title, metadata title, or participant display names contain the
+     * given query.  Conversations with a word starting with the query come first; within each
+     * group, Conversations are ordered by last Message time, most recent first.
+     *
+     * @param query Text to search for.  Case and accents are ignored.
+     * @return Matching Conversations, or an empty list if the query is blank.
+     */
+    public List<Conversation> search(String query) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) return Collections.emptyList();
+
+        synchronized (mLock) {
+            // Typing narrows the previous matches, so only those need another look
+            List<Entry> candidates = mOrdered;
+            if (mLastQuery != null && mLastVersion == mVersion && normalized.startsWith(mLastQuery)) {
+                candidates = mLastMatches;
+            }
+
+            List<Entry> matches = new ArrayList<>();
+            List<Conversation> prefixMatches = new ArrayList<>();
+            List<Conversation> substringMatches = new ArrayList<>();
+            for (Entry entry : candidates) {
+                int index = entry.mKey.indexOf(normalized);
+                if (index < 0) continue;
+                matches.add(entry);
+                if (isWordStart(entry.mKey, normalized, index)) {
+                    prefixMatches.add(entry.mConversation);
+                } else {
+                    substringMatches.add(entry.mConversation);
+                }
+            }
+            mLastQuery = normalized;
+            mLastVersion = mVersion;
+            mLastMatches = matches;
+
+            prefixMatches.addAll(substringMatches);
+            return prefixMatches;
+        }
+    }
+
+    /**
+     * Returns `true` once the initial seed query has been applied.
+     */
+    public boolean isSeeded() {
+        synchronized (mLock) {
+            return mSeeded;
+        }
+    }
+
+    @Override
+    public void onChangeEvent(LayerChangeEvent layerChangeEvent) {
+        Map<Uri, Conversation> reindex = new HashMap<>();
+        Set<Uri> removed = new HashSet<>();
+        Set<Identity> changedIdentities = null;
+
+        for (LayerChange change : layerChangeEvent.getChanges()) {
+            if (change.getObjectType() == LayerObject.Type.CONVERSATION) {
+                Conversation conversation = (Conversation) change.getObject();
+                if (change.getChangeType() == LayerChange.Type.DELETE) {
+                    reindex.remove(conversation.getId());
+                    removed.add(conversation.getId());
+                } else {
+                    removed.remove(conversation.getId());
+                    reindex.put(conversation.getId(), conversation);
+                }
+            } else if (change.getObjectType() == LayerObject.Type.IDENTITY) {
+                if (changedIdentities == null) changedIdentities = new HashSet<>();
+                changedIdentities.add((Identity) change.getObject());
+            }
+        }
+
+        if (changedIdentities != null) {
+            synchronized (mLock) {
+                for (Entry entry : mOrdered) {
+                    if (reindex.containsKey(entry.mId)) continue;
+                    for (Identity identity : changedIdentities) {
+                        if (!entry.mParticipants.contains(identity)) continue;
+                        reindex.put(entry.mId, entry.mConversation);
+                        break;
+                    }
+                }
+            }
+        }
+        if (reindex.isEmpty() && removed.isEmpty()) return;
+
+        // Build keys outside the lock so searches on the UI thread aren't held up
+        List<Entry> entries = new ArrayList<>(reindex.size());
+        for (Conversation conversation : reindex.values()) {
+            if (conversation.getParticipants().size() > 1) {
+                entries.add(buildEntry(conversation));
+            } else {
+                // No longer shown once we've left
+                removed.add(conversation.getId());
+            }
+        }
+
+        synchronized (mLock) {
+            for (Uri id : removed) {
+                removeLocked(id);
+                if (mSeeding) mDeletedWhileSeeding.add(id);
+            }
+            for (Entry entry : entries) {
+                removeLocked(entry.mId);
+                putLocked(entry);
+            }
+            mChangedIds.addAll(removed);
+            mChangedIds.addAll(reindex.keySet());
+        }
+        postChanged();
+    }
+
+    private void putLocked(Entry entry) {
+        mEntries.put(entry.mId, entry);
+        int index = Collections.binarySearch(mOrdered, entry, RECENCY);
+        mOrdered.add(index < 0 ? -index - 1 : index, entry);
+        mVersion++;
+    }
+
+    private void removeLocked(Uri id) {
+        Entry entry = mEntries.remove(id);
+        if (entry == null) return;
+        int index = indexOfLocked(entry);
+        if (index >= 0) mOrdered.remove(index);
+        mVersion++;
+    }
+
+    /**
+     * Finds an entry in mOrdered by binary search, then among neighbours with the same time.
+     */
+    private int indexOfLocked(Entry entry) {
+        int found = Collections.binarySearch(mOrdered, entry, RECENCY);
+        if (found < 0) return mOrdered.indexOf(entry);
+        for (int i = found; i >= 0 && RECENCY.compare(mOrdered.get(i), entry) == 0; i--) {
+            if (mOrdered.get(i) == entry) return i;
+        }
+        for (int i = found + 1; i < mOrdered.size() && RECENCY.compare(mOrdered.get(i), entry) == 0; i++) {
+            if (mOrdered.get(i) == entry) return i;
+        }
+        return mOrdered.indexOf(entry);
+    }
+
+    private void postChanged() {
+        synchronized (mLock) {
+            if (mNotifyPosted) return;
+            mNotifyPosted = true;
+        }
+        mUiThreadHandler.post(mNotifyListener);
+    }
+
+    private Entry buildEntry(Conversation conversation) {
+        Set<Identity> participants = new HashSet<>(conversation.getParticipants());
+        participants.remove(mLayerClient.getAuthenticatedUser());
+
+        StringBuilder sb = new StringBuilder();
+        String metadataTitle = Util.getConversationMetadataTitle(conversation);
+        if (metadataTitle != null) sb.append(metadataTitle).append(' ');
+        for (Identity participant : participants) {
+            sb.append(Util.getDisplayName(participant)).append(' ');
+        }
+
+        Message lastMessage = conversation.getLastMessage();
+        Date receivedAt = (lastMessage == null) ? null : lastMessage.getReceivedAt();
+        return new Entry(conversation, normalize(sb.toString()), participants, receivedAt == null ? 0 : receivedAt.getTime());
+    }
+
+    private static boolean isWordStart(String key, String query, int index) {
+        while (index >= 0) {
+            if (index == 0 || key.charAt(index - 1) == ' ') return true;
+            index = key.indexOf(query, index + 1);
+        }
+        return false;
+    }
+
+    private static String normalize(String text) {
+        if (text == null) return "";
+        String stripped = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return WHITESPACE.matcher(stripped.toLowerCase(Locale.getDefault())).replaceAll(" ").trim();
+    }
+
+    private static final Comparator<Entry> RECENCY = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.mLastMessageAt == rhs.mLastMessageAt ? 0 : (lhs.mLastMessageAt > rhs.mLastMessageAt ? -1 : 1);
+        }
+    };
+
+    private static final class Entry {
+        final Conversation mConversation;
+        final Uri mId;
+        final String mKey;
+        final Set<Identity> mParticipants;
+        final long mLastMessageAt;
+
+        Entry(Conversation conversation, String key, Set<Identity> participants, long lastMessageAt) {
+            mConversation = conversation;
+            mId = conversation.getId();
+            mKey = key;
+            mParticipants = participants;
+            mLastMessageAt = lastMessageAt;
+        }
+    }
+
+    /**
+     * Alerted on the UI thread when the index contents changed.
+     */
+    public interface Listener {
+        /**
+         * @param changedIds IDs of the Conversations updated or removed since the last call; empty
+         *                   after seeding.
+         */
+        void onSearchIndexChanged(Set<Uri> changedIds);
+    }
+}
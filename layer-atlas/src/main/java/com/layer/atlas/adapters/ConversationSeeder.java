@@ -0,0 +1,77 @@
+package com.layer.atlas.adapters;
+
+import android.os.AsyncTask;
+
+import com.layer.atlas.util.Log;
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.query.Predicate;
+import com.layer.sdk.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Seeds in-memory Conversation indexes, such as ConversationSearchIndex and
+ * ConversationUnreadCounter, from one shared Conversation query.  A seed pass feeds every added
+ * Sink that is not yet seeded, so indexes sharing a ConversationSeeder never query twice.
+ */
+class ConversationSeeder {
+    private final LayerClient mLayerClient;
+    private final List<Sink> mSinks = new CopyOnWriteArrayList<>();
+
+    ConversationSeeder(LayerClient layerClient) {
+        mLayerClient = layerClient;
+    }
+
+    void addSink(Sink sink) {
+        mSinks.add(sink);
+    }
+
+    /**
+     * Runs one Conversation query on a background thread and hands the results to every Sink that
+     * accepted the seed.  Does nothing if all Sinks are seeded or seeding.
+     */
+    void seed() {
+        final List<Sink> sinks = new ArrayList<>(mSinks.size());
+        for (Sink sink : mSinks) {
+            if (sink.onSeedStarted()) sinks.add(sink);
+        }
+        if (sinks.isEmpty()) return;
+
+        final Query<Conversation> query = Query.builder(Conversation.class)
+                /* Match the Conversations shown by AtlasConversationsAdapter */
+                .predicate(new Predicate(Conversation.Property.PARTICIPANT_COUNT, Predicate.Operator.GREATER_THAN, 1))
+                .build();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Conversation> conversations = mLayerClient.executeQuery(query, Query.ResultType.OBJECTS);
+                if (Log.isLoggable(Log.VERBOSE)) {
+                    Log.v("Seeding " + sinks.size() + " conversation indexes with " + conversations.size() + " conversations");
+                }
+                for (Sink sink : sinks) {
+                    sink.onSeed(conversations);
+                }
+            }
+        });
+    }
+
+    /**
+     * An index seeded by a ConversationSeeder.
+     */
+    interface Sink {
+        /**
+         * Called on the seeding thread before the query runs.
+         *
+         * @return `true` to receive the results, or `false` if already seeded or seeding.
+         */
+        boolean onSeedStarted();
+
+        /**
+         * Called on a background thread with the shown Conversations.
+         */
+        void onSeed(List<Conversation> conversations);
+    }
+}
@@ -0,0 +1,204 @@
+package com.layer.atlas.adapters;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.changes.LayerChange;
+import com.layer.sdk.changes.LayerChangeEvent;
+import com.layer.sdk.listeners.LayerChangeEventListener;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.LayerObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Keeps the total unread Message count across all shown Conversations, for example for an app-wide
+ * unread badge.  The counter is seeded once from a ConversationSeeder query on a background thread and
+ * then maintained from Conversation change events: each change adjusts the total by the difference
+ * to that Conversation's previous count, so no scans or further queries are needed.
+ */
+public class ConversationUnreadCounter implements LayerChangeEventListener.BackgroundThread.Weak {
+    private final ConversationSeeder mSeeder;
+    private final Handler mUiThreadHandler;
+    private final Set<Listener> mListeners = new CopyOnWriteArraySet<>();
+    private final Runnable mNotifyListeners = new Runnable() {
+        @Override
+        public void run() {
+            int total;
+            synchronized (mLock) {
+                mNotifyPosted = false;
+                total = mTotal;
+            }
+            for (Listener listener : mListeners) {
+                listener.onUnreadCountChanged(ConversationUnreadCounter.this, total);
+            }
+        }
+    };
+
+    private final ConversationSeeder.Sink mSeedSink = new ConversationSeeder.Sink() {
+        @Override
+        public boolean onSeedStarted() {
+            synchronized (mLock) {
+                if (mSeeded || mSeeding) return false;
+                mSeeding = true;
+                return true;
+            }
+        }
+
+        @Override
+        public void onSeed(List<Conversation> conversations) {
+            synchronized (mLock) {
+                for (Conversation conversation : conversations) {
+                    Uri id = conversation.getId();
+                    // Change events seen while the query ran are more recent
+                    if (mCounts.containsKey(id) || mDeletedWhileSeeding.contains(id)) continue;
+                    setCountLocked(id, conversation.getTotalUnreadMessageCount());
+                }
+                mDeletedWhileSeeding.clear();
+                mSeeding = false;
+                mSeeded = true;
+            }
+            postChanged();
+        }
+    };
+
+    // Guarded by mLock
+    private final Object mLock = new Object();
+    private final Map<Uri, Integer> mCounts = new HashMap<>();
+    private final Set<Uri> mDeletedWhileSeeding = new HashSet<>();
+    private int mTotal = 0;
+    private boolean mSeeding = false;
+    private boolean mSeeded = false;
+    private boolean mNotifyPosted = false;
+
+    public ConversationUnreadCounter(LayerClient layerClient) {
+        this(new ConversationSeeder(layerClient));
+    }
+
+    /**
+     * Creates a counter seeded by the given, possibly shared, ConversationSeeder.
+     */
+    ConversationUnreadCounter(ConversationSeeder seeder) {
+        mSeeder = seeder;
+        mUiThreadHandler = new Handler(Looper.getMainLooper());
+        mSeeder.addSink(mSeedSink);
+    }
+
+    /**
+     * Adds a listener alerted on the UI thread whenever the total unread count changes.  Seeds the
+     * counter if this has not happened yet.
+     *
+     * @param listener Listener to add.
+     * @return This ConversationUnreadCounter.
+     */
+    public ConversationUnreadCounter addListener(Listener listener) {
+        mListeners.add(listener);
+        seed();
+        return this;
+    }
+
+    /**
+     * Removes a listener previously added with addListener().
+     *
+     * @param listener Listener to remove.
+     * @return This ConversationUnreadCounter.
+     */
+    public ConversationUnreadCounter removeListener(Listener listener) {
+        mListeners.remove(listener);
+        return this;
+    }
+
+    /**
+     * Returns the total number of unread Messages across all shown Conversations.
+     */
+    public int getTotalUnreadCount() {
+        synchronized (mLock) {
+            return mTotal;
+        }
+    }
+
+    /**
+     * Returns the number of unread Messages in the given Conversation, as last seen by this counter.
+     *
+     * @param conversation Conversation to return the unread count for.
+     * @return The unread count, or 0 if the Conversation is unknown.
+     */
+    public int getUnreadCount(Conversation conversation) {
+        synchronized (mLock) {
+            Integer count = mCounts.get(conversation.getId());
+            return count == null ? 0 : count;
+        }
+    }
+
+    /**
+     * Returns `true` once the initial seed query has been applied.
+     */
+    public boolean isSeeded() {
+        synchronized (mLock) {
+            return mSeeded;
+        }
+    }
+
+    /**
+     * Seeds the counter on a background thread, if not already seeded.  Listeners are alerted once
+     * seeding completes.
+     */
+    public void seed() {
+        mSeeder.seed();
+    }
+
+    @Override
+    public void onChangeEvent(LayerChangeEvent layerChangeEvent) {
+        boolean changed = false;
+        synchronized (mLock) {
+            if (!mSeeded && !mSeeding) return;
+            for (LayerChange change : layerChangeEvent.getChanges()) {
+                if (change.getObjectType() != LayerObject.Type.CONVERSATION) continue;
+                Conversation conversation = (Conversation) change.getObject();
+                Uri id = conversation.getId();
+                if (change.getChangeType() == LayerChange.Type.DELETE || conversation.getParticipants().size() <= 1) {
+                    if (mSeeding) mDeletedWhileSeeding.add(id);
+                    changed |= setCountLocked(id, null);
+                } else {
+                    mDeletedWhileSeeding.remove(id);
+                    changed |= setCountLocked(id, conversation.getTotalUnreadMessageCount());
+                }
+            }
+        }
+        if (changed) postChanged();
+    }
+
+    /**
+     * Replaces a Conversation's count and adjusts the total by the difference.
+     *
+     * @return `true` if the total changed.
+     */
+    private boolean setCountLocked(Uri id, Integer count) {
+        Integer previous = (count == null) ? mCounts.remove(id) : mCounts.put(id, count);
+        int delta = (count == null ? 0 : count) - (previous == null ? 0 : previous);
+        mTotal += delta;
+        return delta != 0;
+    }
+
+    private void postChanged() {
+        synchronized (mLock) {
+            if (mNotifyPosted) return;
+            mNotifyPosted = true;
+        }
+        mUiThreadHandler.post(mNotifyListeners);
+    }
+
+    /**
+     * Alerted on the UI thread when the total unread count changes.
+     */
+    public interface Listener {
+        void onUnreadCountChanged(ConversationUnreadCounter counter, int totalUnreadCount);
+    }
+}
@@ -6,6 +6,7 @@ import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.ViewGroup;
 
+import com.layer.atlas.util.Util;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Message;
 
@@ -120,6 +121,23 @@ public abstract class AtlasCellFactory<Tholder extends AtlasCellFactory.CellHold
 
     public abstract String getPreviewText(Context context, Message message);
 
+    /**
+     * Returns preview text for the given Message of at most `maxChars` characters, for display in
+     * single-line summaries like the conversation list.  The default implementation truncates the
+     * result of getPreviewText(Context, Message); factories whose content can be large should
+     * override this to decode only the needed prefix.
+     *
+     * @param context  Context for resolving resources.
+     * @param message  Message to return preview text for.
+     * @param maxChars Maximum number of characters to return; must be positive.
+     * @return Preview text for the given Message.
+     * @see #getPreviewText(Context, Message)
+     */
+    public String getPreviewText(Context context, Message message, int maxChars) {
+        if (maxChars <= 0) throw new IllegalArgumentException("maxChars must be positive");
+        return Util.truncate(getPreviewText(context, message), maxChars);
+    }
+
     /**
      * CellHolders maintain a reference to their Message, and allow the capture of user interactions
      * with their messages (e.g. clicks).  CellHolders can be extended to act as View caches, where
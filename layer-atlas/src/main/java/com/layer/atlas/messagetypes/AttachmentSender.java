@@ -3,10 +3,25 @@ package com.layer.atlas.messagetypes;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Parcelable;
+import android.os.Process;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 
+import com.layer.atlas.util.Log;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.Message;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import static android.support.v4.app.ActivityCompat.requestPermissions;
 import static android.support.v4.content.ContextCompat.checkSelfPermission;
 
@@ -16,8 +31,33 @@ import static android.support.v4.content.ContextCompat.checkSelfPermission;
  * and receive activity results when needed.
  */
 public abstract class AttachmentSender extends MessageSender {
+    private static final int IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+    // Builds attachment Messages one at a time, so they are sent in the order they were requested
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(1, 1,
+            IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "AtlasAttachmentSender");
+                }
+            });
+
+    static {
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final Set<PendingSendListener> sPendingSendListeners = new CopyOnWriteArraySet<>();
+
     private final String mTitle;
     private final Integer mIcon;
+    private final Handler mUiThreadHandler = new Handler(Looper.getMainLooper());
 
     public AttachmentSender(String title, Integer icon) {
         mTitle = title;
@@ -93,6 +133,87 @@ public abstract class AttachmentSender extends MessageSender {
     }
 
 
+    /**
+     * Builds a Message on a background thread, then sends it from the UI thread.  If the Callback
+     * is a ProgressCallback, it is alerted immediately with the returned PendingSend, then of
+     * progress, and finally of completion.  Call from the UI thread.
+     * <p>
+     * The Message is sent to this sender's current Conversation at the time of the call, even if
+     * the Conversation changes while it is built.  Registered PendingSendListeners, such as
+     * AtlasMessagesAdapter, render a placeholder row until the send completes or is cancelled.
+     *
+     * @param source  What is being sent, e.g. an image Uri or File, for showing a placeholder.
+     * @param builder Builds the Message on a background thread.
+     * @return A handle for tracking or cancelling the send.
+     */
+    protected PendingSend sendInBackground(Object source, final MessageBuilder builder) {
+        final PendingSend pendingSend = new PendingSend(this, getConversation(), source);
+        ProgressCallback callback = getProgressCallback();
+        if (callback != null) callback.onSendStarted(this, pendingSend);
+        for (PendingSendListener listener : sPendingSendListeners) {
+            listener.onPendingSendStarted(pendingSend);
+        }
+
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Message message = null;
+                Exception error = null;
+                try {
+                    pendingSend.throwIfCancelled();
+                    message = builder.build(pendingSend);
+                } catch (CancellationException e) {
+                    if (Log.isLoggable(Log.VERBOSE)) Log.v("Background send cancelled");
+                } catch (Exception e) {
+                    if (Log.isLoggable(Log.ERROR)) Log.e(e.getMessage(), e);
+                    error = e;
+                }
+                final Message built = message;
+                final Exception failure = error;
+                mUiThreadHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean sent = (built != null) && !pendingSend.isCancelled()
+                                && send(built, pendingSend.getConversation());
+                        pendingSend.mDone = true;
+                        ProgressCallback callback = getProgressCallback();
+                        if (callback != null) {
+                            callback.onSendCompleted(AttachmentSender.this, pendingSend, sent ? built : null, failure);
+                        }
+                        pendingSend.notifyFinished();
+                    }
+                });
+            }
+        });
+        return pendingSend;
+    }
+
+    /**
+     * Registers a PendingSendListener to be alerted of every background send from any
+     * AttachmentSender.  Listeners are held strongly until unregistered.
+     *
+     * @param listener PendingSendListener to register.
+     * @see #unregisterPendingSendListener(PendingSendListener)
+     */
+    public static void registerPendingSendListener(PendingSendListener listener) {
+        sPendingSendListeners.add(listener);
+    }
+
+    /**
+     * Unregisters a PendingSendListener registered with
+     * {@link #registerPendingSendListener(PendingSendListener)}.
+     *
+     * @param listener PendingSendListener to unregister.
+     */
+    public static void unregisterPendingSendListener(PendingSendListener listener) {
+        sPendingSendListeners.remove(listener);
+    }
+
+    private ProgressCallback getProgressCallback() {
+        Callback callback = getCallback();
+        return (callback instanceof ProgressCallback) ? (ProgressCallback) callback : null;
+    }
+
     /**
      *
      * Convenience method to check if a set of permissions have been granted
@@ -112,4 +233,157 @@ public abstract class AttachmentSender extends MessageSender {
     protected void requestPermissions (@NonNull Activity activity, final int permissionsCode, String... permissions) {
         android.support.v4.app.ActivityCompat.requestPermissions(activity, permissions, permissionsCode);
     }
+
+    /**
+     * Builds a Message on a background thread for {@link #sendInBackground(Object, MessageBuilder)}.
+     */
+    public interface MessageBuilder {
+        /**
+         * Builds the Message to send.  Long-running builders should report progress and check for
+         * cancellation with {@link PendingSend#setProgress(float)}.
+         *
+         * @param pendingSend Handle to the send being built.
+         * @return The Message to send.
+         */
+        Message build(PendingSend pendingSend) throws Exception;
+    }
+
+    /**
+     * Alerted of background sends from all AttachmentSenders, regardless of their Callbacks, so
+     * views can render pending sends.  All methods are called on the UI thread.
+     *
+     * @see #registerPendingSendListener(PendingSendListener)
+     */
+    public interface PendingSendListener {
+        /**
+         * Called as soon as a background send starts.
+         *
+         * @param pendingSend Handle to the send, with its Conversation and source.
+         */
+        void onPendingSendStarted(PendingSend pendingSend);
+
+        /**
+         * Called as a background send builds its Message.
+         *
+         * @param pendingSend Handle to the send.
+         * @param progress    Fraction of the work done, from 0 to 1.
+         */
+        void onPendingSendProgress(PendingSend pendingSend, float progress);
+
+        /**
+         * Called once when a background send is cancelled or completes, whether or not its Message
+         * was queued.
+         *
+         * @param pendingSend Handle to the send.
+         */
+        void onPendingSendFinished(PendingSend pendingSend);
+    }
+
+    /**
+     * Handle to a Message being built in the background.  Cancelling is possible until the Message
+     * is queued for sending.
+     */
+    public static final class PendingSend {
+        private final AttachmentSender mSender;
+        private final Conversation mConversation;
+        private final Object mSource;
+        private volatile float mProgress = 0f;
+        private volatile boolean mCancelled = false;
+        private volatile boolean mDone = false;
+        private boolean mFinishNotified = false;
+
+        private PendingSend(AttachmentSender sender, Conversation conversation, Object source) {
+            mSender = sender;
+            mConversation = conversation;
+            mSource = source;
+        }
+
+        /**
+         * Returns the Conversation the Message will be sent to.
+         */
+        public Conversation getConversation() {
+            return mConversation;
+        }
+
+        /**
+         * Returns what is being sent, e.g. an image Uri or File.
+         */
+        public Object getSource() {
+            return mSource;
+        }
+
+        public float getProgress() {
+            return mProgress;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Returns `true` once the send has completed, whether or not a Message was queued.
+         */
+        public boolean isDone() {
+            return mDone;
+        }
+
+        /**
+         * Cancels the send if its Message has not been queued yet.
+         *
+         * @return `true` if the send was cancelled, or `false` if it already completed.
+         */
+        public boolean cancel() {
+            if (mDone) return false;
+            mCancelled = true;
+            mSender.mUiThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    notifyFinished();
+                }
+            });
+            return true;
+        }
+
+        /**
+         * Reports progress from a MessageBuilder, and stops the build if the send was cancelled.
+         *
+         * @param progress Fraction of the work done, from 0 to 1.
+         * @throws CancellationException If the send was cancelled.
+         */
+        public void setProgress(final float progress) {
+            throwIfCancelled();
+            mProgress = progress;
+            mSender.mUiThreadHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ProgressCallback callback = mSender.getProgressCallback();
+                    if (mDone || mCancelled) return;
+                    if (callback != null) callback.onSendProgress(mSender, PendingSend.this, progress);
+                    for (PendingSendListener listener : sPendingSendListeners) {
+                        listener.onPendingSendProgress(PendingSend.this, progress);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Stops a MessageBuilder if the send was cancelled.
+         *
+         * @throws CancellationException If the send was cancelled.
+         */
+        public void throwIfCancelled() {
+            if (mCancelled) throw new CancellationException();
+        }
+
+        /**
+         * Alerts PendingSendListeners that this send is over, once.  Call from the UI thread.
+         */
+        private void notifyFinished() {
+            if (mFinishNotified) return;
+            mFinishNotified = true;
+            for (PendingSendListener listener : sPendingSendListeners) {
+                listener.onPendingSendFinished(this);
+            }
+        }
+    }
 }
@@ -51,6 +51,14 @@ public abstract class MessageSender {
         return mLayerClient;
     }
 
+    protected Callback getCallback() {
+        return mCallback;
+    }
+
+    protected Conversation getConversation() {
+        return mConversation;
+    }
+
     /**
      * Sends the given Message to this MessageSender's Conversation.  If a Callback is registered,
      * the Callback may add options or abort sending.
@@ -59,8 +67,21 @@ public abstract class MessageSender {
      * @return `true` if the Message was queued for sending, or `false` if aborted.
      */
     protected boolean send(Message message) {
-        if ((mCallback == null) || mCallback.beforeSend(this, mLayerClient, mConversation, message)) {
-            mConversation.send(message);
+        return send(message, mConversation);
+    }
+
+    /**
+     * Sends the given Message to the given Conversation, which may no longer be this
+     * MessageSender's Conversation.  If a Callback is registered, the Callback may add options or
+     * abort sending.
+     *
+     * @param message      Message to send.
+     * @param conversation Conversation to send the Message to.
+     * @return `true` if the Message was queued for sending, or `false` if aborted.
+     */
+    protected boolean send(Message message, Conversation conversation) {
+        if ((mCallback == null) || mCallback.beforeSend(this, mLayerClient, conversation, message)) {
+            conversation.send(message);
             if (Log.isLoggable(Log.VERBOSE)) Log.v("Message sent by " + getClass().getSimpleName());
             return true;
         }
@@ -90,4 +111,43 @@ public abstract class MessageSender {
          */
         boolean beforeSend(MessageSender sender, LayerClient layerClient, Conversation conversation, Message message);
     }
+
+    /**
+     * A Callback that is also alerted of Messages built in the background, such as image
+     * attachments, so a placeholder and progress can be shown until the Message is queued.  All
+     * methods are called on the UI thread.
+     * <p>
+     * AtlasMessagesRecyclerView already renders a placeholder row for each pending send in its
+     * Conversation, so these events are only needed for app-specific UI.
+     *
+     * @see AttachmentSender#sendInBackground(Object, AttachmentSender.MessageBuilder)
+     */
+    public interface ProgressCallback extends Callback {
+        /**
+         * Called as soon as a background send starts, before any work is done.
+         *
+         * @param sender      The MessageSender starting the send.
+         * @param pendingSend Handle to the send, with its source for showing a placeholder.
+         */
+        void onSendStarted(MessageSender sender, AttachmentSender.PendingSend pendingSend);
+
+        /**
+         * Called as a background send builds its Message.
+         *
+         * @param sender      The MessageSender building the Message.
+         * @param pendingSend Handle to the send.
+         * @param progress    Fraction of the work done, from 0 to 1.
+         */
+        void onSendProgress(MessageSender sender, AttachmentSender.PendingSend pendingSend, float progress);
+
+        /**
+         * Called when a background send ends, whether it was queued, aborted, cancelled or failed.
+         *
+         * @param sender      The MessageSender that ran the send.
+         * @param pendingSend Handle to the send.
+         * @param message     The Message queued for sending, or `null` if it was not sent.
+         * @param error       The error that prevented building the Message, or `null`.
+         */
+        void onSendCompleted(MessageSender sender, AttachmentSender.PendingSend pendingSend, Message message, Exception error);
+    }
 }
@@ -2,6 +2,7 @@ package com.layer.atlas.messagetypes.text;
 
 import android.content.Context;
 import android.graphics.drawable.GradientDrawable;
+import android.util.LruCache;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -12,15 +13,28 @@ import android.widget.Toast;
 
 import com.layer.atlas.R;
 import com.layer.atlas.messagetypes.AtlasCellFactory;
+import com.layer.atlas.util.Log;
 import com.layer.atlas.util.Util;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Identity;
 import com.layer.sdk.messaging.Message;
 import com.layer.sdk.messaging.MessagePart;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
 public class TextCellFactory extends AtlasCellFactory<TextCellFactory.CellHolder, TextCellFactory.TextInfo> implements View.OnLongClickListener {
     public final static String MIME_TYPE = "text/plain";
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int PREVIEW_CACHE_ENTRIES = 256;
+
+    // Prefix previews by Message ID
+    private final LruCache<String, Preview> mPreviewCache = new LruCache<>(PREVIEW_CACHE_ENTRIES);
+
     public TextCellFactory() {
         super(256 * 1024);
     }
@@ -81,6 +95,61 @@ public class TextCellFactory extends AtlasCellFactory<TextCellFactory.CellHolder
         }
     }
 
+    /**
+     * Decodes at most `maxChars` characters from the start of the text part instead of the whole
+     * part.  Results are cached per Message ID.
+     */
+    @Override
+    public String getPreviewText(Context context, Message message, int maxChars) {
+        if (!isType(message)) {
+            throw new IllegalArgumentException("Message is not of the correct type - Text");
+        }
+        if (maxChars <= 0) throw new IllegalArgumentException("maxChars must be positive");
+        MessagePart part = message.getMessageParts().get(0);
+        // For large text content, the MessagePart may not be downloaded yet.
+        if (!part.isContentReady()) return "";
+
+        String id = message.getId().toString();
+        Preview cached = mPreviewCache.get(id);
+        if (cached != null && (cached.mComplete || cached.mText.length() >= maxChars)) {
+            return Util.truncate(cached.mText, maxChars);
+        }
+
+        Preview preview = decodePrefix(part, maxChars);
+        if (preview == null) return super.getPreviewText(context, message, maxChars);
+        mPreviewCache.put(id, preview);
+        return preview.mText;
+    }
+
+    private static Preview decodePrefix(MessagePart part, int maxChars) {
+        InputStream stream = part.getDataStream();
+        if (stream == null) return null;
+        Reader reader = new InputStreamReader(stream, UTF_8);
+        try {
+            // Read one extra char so we know whether the text was truncated
+            char[] buffer = new char[maxChars + 1];
+            int length = 0;
+            while (length < buffer.length) {
+                int read = reader.read(buffer, length, buffer.length - length);
+                if (read < 0) break;
+                length += read;
+            }
+            boolean complete = length <= maxChars;
+            return new Preview(Util.truncate(new String(buffer, 0, length), maxChars), complete);
+        } catch (IOException e) {
+            if (Log.isLoggable(Log.ERROR)) {
+                Log.e(e.getMessage(), e);
+            }
+            return null;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
     /**
      * Long click copies message text and sender name to clipboard
      */
@@ -101,6 +170,16 @@ public class TextCellFactory extends AtlasCellFactory<TextCellFactory.CellHolder
         }
     }
 
+    private static class Preview {
+        private final String mText;
+        private final boolean mComplete;
+
+        Preview(String text, boolean complete) {
+            mText = text;
+            mComplete = complete;
+        }
+    }
+
     public static class TextInfo implements AtlasCellFactory.ParsedContent {
         private final String mString;
         private final String mClipboardPrefix;
@@ -2,6 +2,7 @@ package com.layer.atlas.messagetypes.threepartimage;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
@@ -130,19 +131,22 @@ public class CameraSender extends AttachmentSender {
             return true;
         }
         if (Log.isLoggable(Log.VERBOSE)) Log.v("Received camera response");
-        try {
-            Identity me = getLayerClient().getAuthenticatedUser();
-            String myName = me == null ? "" : Util.getDisplayName(me);
-            Message message = ThreePartImageUtils.newThreePartImageMessage(activity, getLayerClient(), new File(mPhotoFilePath.get()));
-
-            PushNotificationPayload payload = new PushNotificationPayload.Builder()
-                    .text(getContext().getString(R.string.atlas_notification_image, myName))
-                    .build();
-            message.getOptions().defaultPushNotificationPayload(payload);
-            send(message);
-        } catch (IOException e) {
-            if (Log.isLoggable(Log.ERROR)) Log.e(e.getMessage(), e);
-        }
+        Identity me = getLayerClient().getAuthenticatedUser();
+        final String myName = me == null ? "" : Util.getDisplayName(me);
+        final File file = new File(mPhotoFilePath.get());
+        final Context context = activity.getApplicationContext();
+        sendInBackground(file, new MessageBuilder() {
+            @Override
+            public Message build(PendingSend pendingSend) throws IOException {
+                Message message = ThreePartImageUtils.newThreePartImageMessage(context, getLayerClient(), file, pendingSend);
+
+                PushNotificationPayload payload = new PushNotificationPayload.Builder()
+                        .text(context.getString(R.string.atlas_notification_image, myName))
+                        .build();
+                message.getOptions().defaultPushNotificationPayload(payload);
+                return message;
+            }
+        });
         return true;
     }
 
@@ -3,6 +3,7 @@ package com.layer.atlas.messagetypes.threepartimage;
 import android.Manifest;
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
@@ -88,20 +89,23 @@ public class GallerySender extends AttachmentSender {
             return true;
         }
         if (Log.isLoggable(Log.VERBOSE)) Log.v("Received gallery response");
-        try {
-            Identity me = getLayerClient().getAuthenticatedUser();
-            String myName = me == null ? "" : Util.getDisplayName(me);
-            Uri uri = data.getData();
-            Message message = ThreePartImageUtils.newThreePartImageMessage(activity, getLayerClient(), uri);
+        Identity me = getLayerClient().getAuthenticatedUser();
+        final String myName = me == null ? "" : Util.getDisplayName(me);
+        final Uri uri = data.getData();
+        final Context context = activity.getApplicationContext();
+        sendInBackground(uri, new MessageBuilder() {
+            @Override
+            public Message build(PendingSend pendingSend) throws IOException {
+                Message message = ThreePartImageUtils.newThreePartImageMessage(context, getLayerClient(), uri, pendingSend);
+                if (message == null) throw new IOException("Could not read " + uri);
 
-            PushNotificationPayload payload = new PushNotificationPayload.Builder()
-                    .text(getContext().getString(R.string.atlas_notification_image, myName))
-                    .build();
-            message.getOptions().defaultPushNotificationPayload(payload);
-            send(message);
-        } catch (IOException e) {
-            if (Log.isLoggable(Log.ERROR)) Log.e(e.getMessage(), e);
-        }
+                PushNotificationPayload payload = new PushNotificationPayload.Builder()
+                        .text(context.getString(R.string.atlas_notification_image, myName))
+                        .build();
+                message.getOptions().defaultPushNotificationPayload(payload);
+                return message;
+            }
+        });
         return true;
     }
 }
@@ -0,0 +1,145 @@
+package com.layer.atlas.messagetypes.threepartimage;
+
+import android.graphics.Bitmap;
+
+import com.layer.atlas.util.Log;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compresses ThreePartImage previews toward a byte budget.  The preview is first compressed at the
+ * maximum quality; if that exceeds the budget, the highest quality within the budget is found by
+ * binary search, down to the minimum quality.  Previews that exceed the budget even at the minimum
+ * quality are sent at the minimum quality.
+ * <p>
+ * WebP output is smaller at the same visual quality, but is off by default because not every
+ * client decodes it.  WebP previews are sent as
+ * {@link ThreePartImageUtils#MIME_TYPE_PREVIEW_WEBP} rather than the JPEG preview type, so clients
+ * that only know JPEG previews see an unknown message type rather than an undecodable image; only
+ * enable it when receiving clients recognize WebP previews.  If this device fails to compress
+ * WebP, the preview falls back to JPEG.
+ * <p>
+ * Configure the encoder before passing it to
+ * {@link ThreePartImageUtils#setPreviewEncoder(PreviewEncoder)}.
+ */
+public class PreviewEncoder {
+    public static final int DEFAULT_MAX_BYTES = 48 * 1024;
+    public static final int DEFAULT_MIN_QUALITY = 60;
+
+    private int mMaxWidth = ThreePartImageUtils.PREVIEW_MAX_WIDTH;
+    private int mMaxHeight = ThreePartImageUtils.PREVIEW_MAX_HEIGHT;
+    private int mMinQuality = DEFAULT_MIN_QUALITY;
+    private int mMaxQuality = ThreePartImageUtils.PREVIEW_COMPRESSION_QUALITY;
+    private int mMaxBytes = DEFAULT_MAX_BYTES;
+    private boolean mWebpEnabled = false;
+
+    /**
+     * Sets the largest preview dimensions.  Previews are scaled down to fit inside them.
+     *
+     * @param maxWidth  Largest preview width in pixels.
+     * @param maxHeight Largest preview height in pixels.
+     * @return This PreviewEncoder.
+     */
+    public PreviewEncoder setMaxDimensions(int maxWidth, int maxHeight) {
+        if (maxWidth <= 0 || maxHeight <= 0) throw new IllegalArgumentException("Dimensions must be positive");
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        return this;
+    }
+
+    /**
+     * Sets the range of qualities to search for a preview within the byte budget.
+     *
+     * @param minQuality Lowest quality to compress at, from 0 to 100.
+     * @param maxQuality Quality to compress at when the preview is within budget, from 0 to 100.
+     * @return This PreviewEncoder.
+     */
+    public PreviewEncoder setQualityRange(int minQuality, int maxQuality) {
+        if (minQuality < 0 || maxQuality > 100 || minQuality > maxQuality) {
+            throw new IllegalArgumentException("Invalid quality range " + minQuality + "-" + maxQuality);
+        }
+        mMinQuality = minQuality;
+        mMaxQuality = maxQuality;
+        return this;
+    }
+
+    /**
+     * Sets the byte budget for previews.
+     *
+     * @param maxBytes Target preview size in bytes, or 0 to always compress at the maximum quality.
+     * @return This PreviewEncoder.
+     */
+    public PreviewEncoder setMaxBytes(int maxBytes) {
+        mMaxBytes = Math.max(0, maxBytes);
+        return this;
+    }
+
+    /**
+     * Sets whether previews are compressed as WebP instead of JPEG.  WebP previews are sent as
+     * {@link ThreePartImageUtils#MIME_TYPE_PREVIEW_WEBP}.
+     *
+     * @param webpEnabled `true` to compress previews as WebP.
+     * @return This PreviewEncoder.
+     */
+    public PreviewEncoder setWebpEnabled(boolean webpEnabled) {
+        mWebpEnabled = webpEnabled;
+        return this;
+    }
+
+    public int getMaxWidth() {
+        return mMaxWidth;
+    }
+
+    public int getMaxHeight() {
+        return mMaxHeight;
+    }
+
+    /**
+     * Compresses a preview into the given stream, replacing its contents.
+     *
+     * @param preview Scaled preview bitmap.
+     * @param out     Stream to compress into.
+     * @return The format the preview was compressed as.
+     */
+    public Bitmap.CompressFormat encode(Bitmap preview, ByteArrayOutputStream out) {
+        if (mWebpEnabled) {
+            if (search(preview, Bitmap.CompressFormat.WEBP, out)) return Bitmap.CompressFormat.WEBP;
+            if (Log.isLoggable(Log.WARN)) Log.w("Could not compress WebP preview, falling back to JPEG");
+        }
+        search(preview, Bitmap.CompressFormat.JPEG, out);
+        return Bitmap.CompressFormat.JPEG;
+    }
+
+    private boolean search(Bitmap preview, Bitmap.CompressFormat format, ByteArrayOutputStream out) {
+        if (!compress(preview, format, mMaxQuality, out)) return false;
+        if (mMaxBytes == 0 || out.size() <= mMaxBytes) return true;
+
+        int low = mMinQuality;
+        int high = mMaxQuality - 1;
+        int best = mMinQuality;
+        int last = mMaxQuality;
+        while (low <= high) {
+            int quality = (low + high) >>> 1;
+            if (!compress(preview, format, quality, out)) return false;
+            last = quality;
+            if (out.size() <= mMaxBytes) {
+                best = quality;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+        if (last != best && !compress(preview, format, best, out)) return false;
+
+        if (Log.isLoggable(Log.VERBOSE)) {
+            Log.v("Compressed " + format + " preview at quality " + best + " to " + out.size()
+                    + " bytes for a budget of " + mMaxBytes);
+        }
+        return true;
+    }
+
+    private static boolean compress(Bitmap preview, Bitmap.CompressFormat format, int quality, ByteArrayOutputStream out) {
+        out.reset();
+        return preview.compress(format, quality, out);
+    }
+}
@@ -4,7 +4,18 @@ import android.app.Activity;
 import android.app.ActivityOptions;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Parcel;
@@ -49,6 +60,7 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
     private final LayerClient mLayerClient;
     private final Picasso mPicasso;
     private Transformation mTransform;
+    private float mCornerRadius = -1f;
 
     public ThreePartImageCellFactory(LayerClient mLayerClient, Picasso mPicasso) {
         super(CACHE_SIZE_BYTES);
@@ -93,7 +105,13 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
         params.width = cellDims[0];
         params.height = cellDims[1];
         cellHolder.mProgressBar.show();
-        RequestCreator creator = mPicasso.load(preview.getId()).tag(PICASSO_TAG).placeholder(PLACEHOLDER);
+        RequestCreator creator = mPicasso.load(preview.getId()).tag(PICASSO_TAG);
+        if (info.thumbnail != null) {
+            // Paint the embedded thumbnail, stretched and filtered into a blur, until the preview loads
+            creator.placeholder(new ThumbnailDrawable(info.thumbnail, getCornerRadius(cellHolder.mImageView.getContext())));
+        } else {
+            creator.placeholder(PLACEHOLDER);
+        }
         switch (info.orientation) {
             case ThreePartImageUtils.ORIENTATION_0:
                 creator.resize(cellDims[0], cellDims[1]);
@@ -181,13 +199,19 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
 
     private Transformation getTransform(Context context) {
         if (mTransform == null) {
-            float radius = context.getResources().getDimension(com.layer.atlas.R.dimen.atlas_message_item_cell_radius);
-            mTransform = new RoundedTransform(radius);
+            mTransform = new RoundedTransform(getCornerRadius(context));
         }
 
         return mTransform;
     }
 
+    private float getCornerRadius(Context context) {
+        if (mCornerRadius < 0f) {
+            mCornerRadius = context.getResources().getDimension(com.layer.atlas.R.dimen.atlas_message_item_cell_radius);
+        }
+        return mCornerRadius;
+    }
+
     //==============================================================================================
     // Static utilities
     //==============================================================================================
@@ -196,7 +220,7 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
         List<MessagePart> parts = message.getMessageParts();
         return parts.size() == 3 &&
                 parts.get(ThreePartImageUtils.PART_INDEX_FULL).getMimeType().startsWith("image/") &&
-                parts.get(ThreePartImageUtils.PART_INDEX_PREVIEW).getMimeType().equals(ThreePartImageUtils.MIME_TYPE_PREVIEW) &&
+                ThreePartImageUtils.isPreviewMimeType(parts.get(ThreePartImageUtils.PART_INDEX_PREVIEW).getMimeType()) &&
                 parts.get(ThreePartImageUtils.PART_INDEX_INFO).getMimeType().equals(ThreePartImageUtils.MIME_TYPE_INFO);
     }
 
@@ -217,6 +241,12 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
             info.orientation = infoObject.getInt("orientation");
             info.width = infoObject.getInt("width");
             info.height = infoObject.getInt("height");
+            // Messages from older senders have no thumbnail
+            String thumbnail = infoObject.optString("thumbnail", null);
+            if (thumbnail != null) {
+                info.thumbnail = ThreePartImageUtils.decodeThumbnail(thumbnail, infoObject.optInt("thumbnail_width"),
+                        infoObject.optInt("thumbnail_height"), info.orientation);
+            }
             info.previewPartId = ThreePartImageUtils.getPreviewPart(message).getId();
             info.fullPartId = ThreePartImageUtils.getFullPart(message).getId();
             return info;
@@ -239,10 +269,12 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
         public int height;
         public Uri fullPartId;
         public Uri previewPartId;
+        public Bitmap thumbnail;
 
         @Override
         public int sizeOf() {
-            return ((Integer.SIZE + Integer.SIZE + Integer.SIZE) / Byte.SIZE) + fullPartId.toString().getBytes().length + previewPartId.toString().getBytes().length;
+            return ((Integer.SIZE + Integer.SIZE + Integer.SIZE) / Byte.SIZE) + fullPartId.toString().getBytes().length + previewPartId.toString().getBytes().length
+                    + (thumbnail == null ? 0 : thumbnail.getByteCount());
         }
 
         @Override
@@ -273,6 +305,56 @@ public class ThreePartImageCellFactory extends AtlasCellFactory<ThreePartImageCe
         };
     }
 
+    /**
+     * Draws a thumbnail stretched to its bounds with bilinear filtering, which blurs it, and
+     * clipped to the cell's rounded corners.  Has no intrinsic size, so it fills the ImageView.
+     */
+    private static class ThumbnailDrawable extends Drawable {
+        private final Bitmap mBitmap;
+        private final float mCornerRadius;
+        private final BitmapShader mShader;
+        private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.FILTER_BITMAP_FLAG);
+        private final Matrix mMatrix = new Matrix();
+        private final RectF mRect = new RectF();
+
+        ThumbnailDrawable(Bitmap bitmap, float cornerRadius) {
+            mBitmap = bitmap;
+            mCornerRadius = cornerRadius;
+            mShader = new BitmapShader(bitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+            mPaint.setShader(mShader);
+        }
+
+        @Override
+        protected void onBoundsChange(Rect bounds) {
+            mRect.set(bounds);
+            mMatrix.setScale(mRect.width() / mBitmap.getWidth(), mRect.height() / mBitmap.getHeight());
+            mMatrix.postTranslate(mRect.left, mRect.top);
+            mShader.setLocalMatrix(mMatrix);
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            canvas.drawRoundRect(mRect, mCornerRadius, mCornerRadius, mPaint);
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            mPaint.setAlpha(alpha);
+            invalidateSelf();
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter colorFilter) {
+            mPaint.setColorFilter(colorFilter);
+            invalidateSelf();
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+    }
+
     static class CellHolder extends AtlasCellFactory.CellHolder {
         ImageView mImageView;
         ContentLoadingProgressBar mProgressBar;
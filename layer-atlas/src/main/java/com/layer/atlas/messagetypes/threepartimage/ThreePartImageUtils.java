@@ -4,25 +4,38 @@ import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.provider.MediaStore;
-import android.provider.OpenableColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
+import android.util.Base64;
 
+import com.layer.atlas.messagetypes.AttachmentSender;
 import com.layer.atlas.util.Log;
 import com.layer.atlas.util.Util;
+import com.layer.atlas.util.picasso.BitmapPool;
 import com.layer.sdk.LayerClient;
 import com.layer.sdk.messaging.Message;
 import com.layer.sdk.messaging.MessagePart;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.Locale;
 
 public class ThreePartImageUtils {
@@ -32,18 +45,44 @@ public class ThreePartImageUtils {
     public static final int ORIENTATION_270 = 3;
 
     public static final String MIME_TYPE_PREVIEW = "image/jpeg+preview";
+    public static final String MIME_TYPE_PREVIEW_WEBP = "image/webp+preview";
     public static final String MIME_TYPE_INFO = "application/json+imageSize";
 
     public static final int PART_INDEX_FULL = 0;
     public static final int PART_INDEX_PREVIEW = 1;
     public static final int PART_INDEX_INFO = 2;
 
+    /**
+     * Default maximum preview quality and dimensions.
+     *
+     * @see PreviewEncoder
+     */
     public static final int PREVIEW_COMPRESSION_QUALITY = 75;
     public static final int PREVIEW_MAX_WIDTH = 512;
     public static final int PREVIEW_MAX_HEIGHT = 512;
+    /**
+     * Longest side of the thumbnail embedded in the info part, in pixels.
+     */
+    public static final int INFO_THUMBNAIL_MAX_SIZE = 8;
     public static final String MIME_TYPE_FILTER_IMAGE = "image/*";
     public static final String MIME_TYPE_IMAGE_JPEG = "image/jpeg";
 
+    private static volatile PreviewEncoder sPreviewEncoder = new PreviewEncoder();
+
+    /**
+     * Sets the encoder for previews of new ThreePartImage Messages.
+     *
+     * @param previewEncoder Configured PreviewEncoder.
+     */
+    public static void setPreviewEncoder(PreviewEncoder previewEncoder) {
+        if (previewEncoder == null) throw new IllegalArgumentException("Null PreviewEncoder");
+        sPreviewEncoder = previewEncoder;
+    }
+
+    public static PreviewEncoder getPreviewEncoder() {
+        return sPreviewEncoder;
+    }
+
     public static MessagePart getInfoPart(Message message) {
         return message.getMessageParts().get(PART_INDEX_INFO);
     }
@@ -52,19 +91,38 @@ public class ThreePartImageUtils {
         return message.getMessageParts().get(PART_INDEX_PREVIEW);
     }
 
+    /**
+     * Returns `true` if the given MIME type is a ThreePartImage preview type, JPEG or WebP.
+     */
+    public static boolean isPreviewMimeType(String mimeType) {
+        return MIME_TYPE_PREVIEW.equals(mimeType) || MIME_TYPE_PREVIEW_WEBP.equals(mimeType);
+    }
+
     public static MessagePart getFullPart(Message message) {
         return message.getMessageParts().get(PART_INDEX_FULL);
     }
 
     public static Message newThreePartImageMessage(Context context, LayerClient layerClient, Uri imageUri) throws IOException {
+        return newThreePartImageMessage(context, layerClient, imageUri, null);
+    }
+
+    /**
+     * Creates a new ThreePartImage Message from a content Uri, reporting progress to and stopping
+     * early for a cancelled PendingSend.
+     *
+     * @param pendingSend Send to report progress to, or `null`.
+     * @throws java.util.concurrent.CancellationException If the send was cancelled.
+     */
+    public static Message newThreePartImageMessage(Context context, LayerClient layerClient, Uri imageUri,
+                                                   AttachmentSender.PendingSend pendingSend) throws IOException {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            return newThreePartImageMessageFromUri(context, layerClient, imageUri);
+            return newThreePartImageMessageFromUri(context, layerClient, imageUri, pendingSend);
         } else {
             Cursor cursor = context.getContentResolver().query(imageUri, new String[]{MediaStore.MediaColumns.DATA}, null, null, null);
             try {
                 if (cursor == null || !cursor.moveToFirst()) return null;
                 File imageFile = new File(cursor.getString(0));
-                return newThreePartImageMessage(context, layerClient, imageFile);
+                return newThreePartImageMessage(context, layerClient, imageFile, pendingSend);
             } finally {
                 if (cursor != null) cursor.close();
             }
@@ -80,29 +138,79 @@ public class ThreePartImageUtils {
      * @return
      */
     public static Message newThreePartImageMessage(Context context, LayerClient client, File file) throws IOException {
+        return newThreePartImageMessage(context, client, file, null);
+    }
+
+    /**
+     * Creates a new ThreePartImage Message from a file, reporting progress to and stopping early
+     * for a cancelled PendingSend.
+     *
+     * @param pendingSend Send to report progress to, or `null`.
+     * @throws java.util.concurrent.CancellationException If the send was cancelled.
+     */
+    public static Message newThreePartImageMessage(Context context, LayerClient client, File file,
+                                                   AttachmentSender.PendingSend pendingSend) throws IOException {
         if (client == null) throw new IllegalArgumentException("Null LayerClient");
         if (file == null) throw new IllegalArgumentException("Null image file");
         if (!file.exists()) throw new IllegalArgumentException("No image file");
         if (!file.canRead()) throw new IllegalArgumentException("Cannot read image file");
+        if (file.length() <= 0) throw new IllegalArgumentException("Image file is empty");
 
-        BitmapFactory.Options bounds = getBounds(new FileInputStream(file.getAbsolutePath()));
-        ExifInterface exifData = getExifData(file);
+        if (Log.isLoggable(Log.VERBOSE)) {
+            Log.v("Creating ThreePartImage from '" + file.getAbsolutePath() + "'");
+        }
+        FileInputStream stream = new FileInputStream(file);
+        try {
+            return newThreePartImageMessage(context, client, map(stream), pendingSend);
+        } finally {
+            stream.close();
+        }
+    }
 
-        // Create info message part
-        MessagePart info = buildInfoMessagePart(client, bounds, exifData);
+    @RequiresApi(api = Build.VERSION_CODES.N)
+    private static Message newThreePartImageMessageFromUri(Context context, LayerClient client, @NonNull Uri uri,
+                                                           AttachmentSender.PendingSend pendingSend) throws IOException {
+        if (client == null) throw new IllegalArgumentException("Null LayerClient");
 
-        // Create Preview message part
         if (Log.isLoggable(Log.VERBOSE)) {
-            Log.v("Creating Preview from '" + file.getAbsolutePath() + "'");
+            Log.v("Creating ThreePartImage from " + uri.toString());
         }
-        MessagePart preview = buildPreviewMessagePart(context, client, new FileInputStream(file.getAbsolutePath()), bounds, exifData);
+        return newThreePartImageMessage(context, client, readSource(context, uri), pendingSend);
+    }
+
+    /**
+     * Builds all three parts from one in-memory or memory-mapped copy of the source: EXIF and
+     * bounds come from the header bytes, the preview is decoded from the same buffer, and the
+     * full part streams the buffer as-is.
+     */
+    private static Message newThreePartImageMessage(Context context, LayerClient client, ByteBuffer source,
+                                                    AttachmentSender.PendingSend pendingSend) throws IOException {
+        setProgress(pendingSend, 0.1f);
+        BitmapFactory.Options bounds = getBounds(source);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) throw new IOException("Could not decode image bounds");
+        int exifOrientation = getExifOrientation(source);
+
+        // Decode the preview first, so the info part can carry a thumbnail of it
+        BitmapPool.getInstance().trimOnMemoryPressure(context);
+        PreviewEncoder encoder = sPreviewEncoder;
+        Bitmap previewBitmap = getPreviewBitmap(bounds, new ByteBufferInputStream(source), encoder);
+        setProgress(pendingSend, 0.5f);
+
+        // Create info message part
+        MessagePart info = buildInfoMessagePart(client, bounds, exifOrientation, previewBitmap);
+
+        // Create Preview message part
+        MessagePart preview = buildPreviewMessagePart(client, previewBitmap, exifOrientation, encoder);
+        setProgress(pendingSend, 0.8f);
 
         // Create Full message part
-        MessagePart full = client.newMessagePart(MIME_TYPE_IMAGE_JPEG, new FileInputStream(file), file.length());
+        MessagePart full = client.newMessagePart(MIME_TYPE_IMAGE_JPEG, new ByteBufferInputStream(source), source.remaining());
         if (Log.isLoggable(Log.VERBOSE)) {
             Log.v(String.format(Locale.US, "Full image bytes: %d, preview bytes: %d, info bytes: %d", full.getSize(), preview.getSize(), info.getSize()));
         }
 
+        setProgress(pendingSend, 0.9f);
+
         MessagePart[] parts = new MessagePart[3];
         parts[PART_INDEX_FULL] = full;
         parts[PART_INDEX_PREVIEW] = preview;
@@ -110,55 +218,128 @@ public class ThreePartImageUtils {
         return client.newMessage(parts);
     }
 
+    private static void setProgress(AttachmentSender.PendingSend pendingSend, float progress) {
+        if (pendingSend != null) pendingSend.setProgress(progress);
+    }
 
-    private static ExifInterface getExifData(File imageFile) throws IOException {
-        if (imageFile == null) throw new IllegalArgumentException("Null image file");
-        if (!imageFile.exists()) throw new IllegalArgumentException("Image file does not exist");
-        if (!imageFile.canRead()) throw new IllegalArgumentException("Cannot read image file");
-        if (imageFile.length() <= 0) throw new IllegalArgumentException("Image file is empty");
-
+    /**
+     * Reads a content Uri once, memory-mapping it when it is backed by a regular file and reading
+     * it into memory otherwise.
+     */
+    private static ByteBuffer readSource(Context context, Uri uri) throws IOException {
+        ParcelFileDescriptor descriptor = null;
         try {
-            ExifInterface exifInterface = new ExifInterface(imageFile.getAbsolutePath());
-            return exifInterface;
-        } catch (IOException e) {
-            if (Log.isLoggable(Log.ERROR)) {
-                Log.e(e.getMessage(), e);
+            descriptor = context.getContentResolver().openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException e) {
+            if (Log.isLoggable(Log.VERBOSE)) {
+                Log.v("No file descriptor for " + uri + ", reading stream instead");
+            }
+        }
+        if (descriptor != null) {
+            FileInputStream stream = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+            try {
+                ByteBuffer mapped = map(stream);
+                if (mapped.remaining() > 0) return mapped;
+            } catch (IOException e) {
+                // Pipes and sockets cannot be mapped
+                if (Log.isLoggable(Log.VERBOSE)) {
+                    Log.v("Could not map " + uri + ", reading stream instead");
+                }
+            } finally {
+                stream.close();
             }
-            throw e;
         }
-    }
 
-    @RequiresApi(api = Build.VERSION_CODES.N)
-    private static ExifInterface getExifData(@NonNull InputStream inputStream) throws IOException {
+        InputStream stream = context.getContentResolver().openInputStream(uri);
+        if (stream == null) throw new IOException("Could not open " + uri);
         try {
-            ExifInterface exifInterface = new ExifInterface(inputStream);
-            return exifInterface;
-        } catch (IOException e) {
-            if (Log.isLoggable(Log.ERROR)) {
-                Log.e(e.getMessage(), e);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
             }
-            throw e;
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } finally {
+            stream.close();
         }
     }
 
-    private static BitmapFactory.Options getBounds(InputStream inputStream) {
+    private static ByteBuffer map(FileInputStream stream) throws IOException {
+        FileChannel channel = stream.getChannel();
+        // The mapping stays valid after the channel is closed
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    private static BitmapFactory.Options getBounds(ByteBuffer source) {
         BitmapFactory.Options bounds = new BitmapFactory.Options();
         bounds.inJustDecodeBounds = true;
-        BitmapFactory.decodeStream(inputStream, null, bounds);
+        BitmapFactory.decodeStream(new ByteBufferInputStream(source), null, bounds);
 
         return bounds;
     }
 
+    /**
+     * Returns the orientation tag from a JPEG's EXIF segment, or ExifInterface.ORIENTATION_UNDEFINED
+     * if the source is not a JPEG or has no orientation.  Only the segments before the image data
+     * are read.
+     */
+    private static int getExifOrientation(ByteBuffer source) {
+        ByteBuffer jpeg = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int base = jpeg.position();
+        int limit = jpeg.limit();
+        if (limit - base < 4 || (jpeg.getShort(base) & 0xFFFF) != 0xFFD8) return ExifInterface.ORIENTATION_UNDEFINED;
+        int offset = base + 2;
+        while (offset + 4 <= limit) {
+            int marker = jpeg.getShort(offset) & 0xFFFF;
+            if ((marker & 0xFF00) != 0xFF00 || marker == 0xFFDA || marker == 0xFFD9) break;
+            int length = jpeg.getShort(offset + 2) & 0xFFFF;
+            int end = offset + 2 + length;
+            if (length < 2 || end > limit) break;
+            // APP1 segment starting with "Exif\0\0"
+            if (marker == 0xFFE1 && length >= 16 && jpeg.getInt(offset + 4) == 0x45786966 && jpeg.getShort(offset + 8) == 0) {
+                return getTiffOrientation(jpeg, offset + 10, end);
+            }
+            offset = end;
+        }
+        return ExifInterface.ORIENTATION_UNDEFINED;
+    }
+
+    private static int getTiffOrientation(ByteBuffer jpeg, int start, int end) {
+        ByteBuffer tiff = jpeg.duplicate();
+        short byteOrder = tiff.getShort(start);
+        if (byteOrder == 0x4949) {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder != 0x4D4D) {
+            return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+        int ifdOffset = tiff.getInt(start + 4);
+        if (ifdOffset < 8 || ifdOffset > end - start - 2) return ExifInterface.ORIENTATION_UNDEFINED;
+        int ifd = start + ifdOffset;
+        int entries = tiff.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) break;
+            if ((tiff.getShort(entry) & 0xFFFF) == 0x0112) return tiff.getShort(entry + 8) & 0xFFFF;
+        }
+        return ExifInterface.ORIENTATION_UNDEFINED;
+    }
+
     private static MessagePart buildInfoMessagePart(LayerClient client, BitmapFactory.Options bounds,
-                                                    ExifInterface exifData) throws IOException {
-        int[] orientationData = getOrientationData(exifData);
+                                                    int exifOrientation, Bitmap previewBitmap) throws IOException {
+        int[] orientationData = getOrientationData(exifOrientation);
         int orientation = orientationData[0];
 
         boolean isSwap = orientation == ORIENTATION_270 || orientation == ORIENTATION_90;
 
+        // Receivers ignore unknown fields, so the thumbnail is an optional addition to the format
+        Bitmap thumbnail = getThumbnailBitmap(previewBitmap);
         String intoString = "{\"orientation\":" + orientation + ", \"width\":"
                 + (!isSwap ? bounds.outWidth : bounds.outHeight) + ", \"height\":"
-                + (!isSwap ? bounds.outHeight : bounds.outWidth) + "}";
+                + (!isSwap ? bounds.outHeight : bounds.outWidth)
+                + ", \"thumbnail_width\":" + thumbnail.getWidth() + ", \"thumbnail_height\":" + thumbnail.getHeight()
+                + ", \"thumbnail\":\"" + encodeThumbnail(thumbnail) + "\"}";
+        if (thumbnail != previewBitmap) thumbnail.recycle();
 
         if (Log.isLoggable(Log.VERBOSE)) {
             Log.v("Creating image info: " + intoString);
@@ -167,9 +348,10 @@ public class ThreePartImageUtils {
         return client.newMessagePart(MIME_TYPE_INFO, intoString.getBytes());
     }
 
-    private static Bitmap getPreviewBitmap (BitmapFactory.Options bounds, InputStream inputStream) {
+    private static Bitmap getPreviewBitmap (BitmapFactory.Options bounds, InputStream inputStream,
+                                            PreviewEncoder encoder) throws IOException {
         // Determine preview size
-        int[] previewDimensions = Util.scaleDownInside(bounds.outWidth, bounds.outHeight, PREVIEW_MAX_WIDTH, PREVIEW_MAX_HEIGHT);
+        int[] previewDimensions = Util.scaleDownInside(bounds.outWidth, bounds.outHeight, encoder.getMaxWidth(), encoder.getMaxHeight());
         if (Log.isLoggable(Log.VERBOSE)) {
             Log.v("Preview size: " + previewDimensions[0] + "x" + previewDimensions[1]);
         }
@@ -187,91 +369,137 @@ public class ThreePartImageUtils {
 
         BitmapFactory.Options previewOptions = new BitmapFactory.Options();
         previewOptions.inSampleSize = sampleSize;
+        BitmapPool.getInstance().setInBitmap(previewOptions, bounds.outWidth, bounds.outHeight);
 
         if (Log.isLoggable(Log.VERBOSE)) {
             Log.v("Preview sampled size: " + (sampleWidth << 1) + "x" + (sampleHeight << 1));
         }
 
-        // Create preview
-        Bitmap sampledBitmap = BitmapFactory.decodeStream(inputStream, null, previewOptions);
-        Bitmap previewBitmap = Bitmap.createScaledBitmap(sampledBitmap, previewDimensions[0], previewDimensions[1], true);
+        // Create preview, decoding into a pooled bitmap when one fits
+        Bitmap sampledBitmap;
+        inputStream.mark(Integer.MAX_VALUE);
+        try {
+            sampledBitmap = BitmapFactory.decodeStream(inputStream, null, previewOptions);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap was unsuitable after all; decode again into a new one
+            BitmapPool.getInstance().put(previewOptions.inBitmap);
+            previewOptions.inBitmap = null;
+            inputStream.reset();
+            sampledBitmap = BitmapFactory.decodeStream(inputStream, null, previewOptions);
+        }
+        if (sampledBitmap == null) throw new IOException("Could not decode image");
+        Bitmap previewBitmap = BitmapPool.getInstance().get(previewDimensions[0], previewDimensions[1], Bitmap.Config.ARGB_8888);
+        new Canvas(previewBitmap).drawBitmap(sampledBitmap, null,
+                new Rect(0, 0, previewDimensions[0], previewDimensions[1]), new Paint(Paint.FILTER_BITMAP_FLAG));
 
-        sampledBitmap.recycle();
+        BitmapPool.getInstance().put(sampledBitmap);
 
         return previewBitmap;
     }
 
-    private static MessagePart buildPreviewMessagePart(Context context, LayerClient client, InputStream inputStream,
-                                                       BitmapFactory.Options bounds, ExifInterface exifData) throws IOException {
-
-        Bitmap previewBitmap = getPreviewBitmap(bounds, inputStream);
-        File temp = new File(context.getCacheDir(), ThreePartImageUtils.class.getSimpleName() + "." + System.nanoTime() + ".jpg");
-        FileOutputStream previewStream = new FileOutputStream(temp);
-
-        if (Log.isLoggable(Log.VERBOSE)) {
-            Log.v("Compressing preview to '" + temp.getAbsolutePath() + "'");
+    /**
+     * Returns a copy of the preview at most INFO_THUMBNAIL_MAX_SIZE pixels on its longest side.
+     * The preview is halved repeatedly first, so every preview pixel contributes to the result.
+     */
+    private static Bitmap getThumbnailBitmap(Bitmap previewBitmap) {
+        int[] dimensions = Util.scaleDownInside(previewBitmap.getWidth(), previewBitmap.getHeight(),
+                INFO_THUMBNAIL_MAX_SIZE, INFO_THUMBNAIL_MAX_SIZE);
+        int width = Math.max(1, dimensions[0]);
+        int height = Math.max(1, dimensions[1]);
+        Bitmap scaled = previewBitmap;
+        while (scaled.getWidth() >= width * 2 && scaled.getHeight() >= height * 2) {
+            Bitmap halved = Bitmap.createScaledBitmap(scaled, scaled.getWidth() / 2, scaled.getHeight() / 2, true);
+            if (scaled != previewBitmap) scaled.recycle();
+            scaled = halved;
         }
+        Bitmap thumbnail = Bitmap.createScaledBitmap(scaled, width, height, true);
+        if (scaled != previewBitmap && scaled != thumbnail) scaled.recycle();
+        return thumbnail;
+    }
 
-        previewBitmap.compress(Bitmap.CompressFormat.JPEG, PREVIEW_COMPRESSION_QUALITY, previewStream);
-        previewBitmap.recycle();
-        previewStream.close();
-
-        // Preserve exif orientation
-        ExifInterface preserver = new ExifInterface(temp.getAbsolutePath());
-        int[] orientationData = getOrientationData(exifData);
-        int exifOrientation = orientationData[1];
-        preserver.setAttribute(ExifInterface.TAG_ORIENTATION, Integer.toString(exifOrientation));
-        preserver.saveAttributes();
-        if (Log.isLoggable(Log.VERBOSE)) {
-            Log.v("Exif orientation preserved in preview");
+    /**
+     * Encodes a thumbnail as Base64 RGB triplets, row by row.
+     */
+    private static String encodeThumbnail(Bitmap thumbnail) {
+        int width = thumbnail.getWidth();
+        int height = thumbnail.getHeight();
+        int[] pixels = new int[width * height];
+        thumbnail.getPixels(pixels, 0, width, 0, 0, width, height);
+        byte[] rgb = new byte[pixels.length * 3];
+        for (int i = 0; i < pixels.length; i++) {
+            rgb[i * 3] = (byte) Color.red(pixels[i]);
+            rgb[i * 3 + 1] = (byte) Color.green(pixels[i]);
+            rgb[i * 3 + 2] = (byte) Color.blue(pixels[i]);
         }
-
-        return client.newMessagePart(MIME_TYPE_PREVIEW, new FileInputStream(temp), temp.length());
+        return Base64.encodeToString(rgb, Base64.NO_WRAP);
     }
 
-
-    @RequiresApi(api = Build.VERSION_CODES.N)
-    private static Message newThreePartImageMessageFromUri(Context context, LayerClient client, @NonNull Uri uri) throws IOException {
-        if (client == null) throw new IllegalArgumentException("Null LayerClient");
-
-        //InputStream inputStream = StorageAccessUtilities.getInputStreamFromUri(context, uri, MIME_TYPE_FILTER_IMAGE);
-        InputStream inputStream = context.getContentResolver().openInputStream(uri);
-        ExifInterface exifData = getExifData(inputStream);
-
-        inputStream = context.getContentResolver().openInputStream(uri);
-        BitmapFactory.Options bounds = getBounds(inputStream);
-
-        // Create info message part
-        MessagePart info = buildInfoMessagePart(client, bounds, exifData);
-
-        // Create Preview message part
-        if (Log.isLoggable(Log.VERBOSE)) {
-            Log.v("Creating Preview from " + uri.toString());
+    /**
+     * Decodes a thumbnail embedded in an info part and rotates it like the preview is rotated for
+     * display.
+     *
+     * @param encoded     Base64 RGB triplets from the info part.
+     * @param width       Thumbnail width from the info part.
+     * @param height      Thumbnail height from the info part.
+     * @param orientation Orientation from the info part.
+     * @return The decoded thumbnail, or `null` if it is malformed.
+     */
+    public static Bitmap decodeThumbnail(String encoded, int width, int height, int orientation) {
+        if (width <= 0 || height <= 0 || width > INFO_THUMBNAIL_MAX_SIZE || height > INFO_THUMBNAIL_MAX_SIZE) return null;
+        byte[] rgb;
+        try {
+            rgb = Base64.decode(encoded, Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            return null;
         }
-        inputStream = context.getContentResolver().openInputStream(uri);
-        MessagePart preview = buildPreviewMessagePart(context, client, inputStream, bounds, exifData);
-
-        // Create Full message part
-        inputStream = context.getContentResolver().openInputStream(uri);
-        long fileSize = getFileSizeFromUri(context, uri);
-        MessagePart full = client.newMessagePart(MIME_TYPE_IMAGE_JPEG, inputStream, fileSize);
-        if (Log.isLoggable(Log.VERBOSE)) {
-            Log.v(String.format(Locale.US, "Full image bytes: %d, preview bytes: %d, info bytes: %d", full.getSize(), preview.getSize(), info.getSize()));
+        if (rgb.length != width * height * 3) return null;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = Color.rgb(rgb[i * 3] & 0xFF, rgb[i * 3 + 1] & 0xFF, rgb[i * 3 + 2] & 0xFF);
+        }
+        Bitmap thumbnail = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ORIENTATION_0:
+                return thumbnail;
+            case ORIENTATION_90:
+                matrix.postRotate(-90);
+                break;
+            case ORIENTATION_180:
+                matrix.postRotate(180);
+                break;
+            default:
+                matrix.postRotate(90);
+                break;
         }
+        return Bitmap.createBitmap(thumbnail, 0, 0, width, height, matrix, false);
+    }
 
-        MessagePart[] parts = new MessagePart[3];
-        parts[PART_INDEX_FULL] = full;
-        parts[PART_INDEX_PREVIEW] = preview;
-        parts[PART_INDEX_INFO] = info;
-        return client.newMessage(parts);
+    private static MessagePart buildPreviewMessagePart(LayerClient client, Bitmap previewBitmap, int exifOrientation,
+                                                       PreviewEncoder encoder) throws IOException {
+        PreviewBuffer buffer = PreviewBuffer.obtain();
+        try {
+            Bitmap.CompressFormat format = encoder.encode(previewBitmap, buffer);
+            BitmapPool.getInstance().put(previewBitmap);
+
+            // Receivers rotate the preview themselves, so preserve exif orientation rather than apply it.
+            // WebP previews carry no EXIF and are copied as-is.
+            byte[] preview = buffer.toJpegWithOrientation(exifOrientation);
+            if (Log.isLoggable(Log.VERBOSE)) {
+                Log.v("Compressed " + format + " preview to " + preview.length + " bytes with exif orientation " + exifOrientation);
+            }
+            // Label WebP previews as such, so receivers that cannot decode WebP skip them
+            String mimeType = (format == Bitmap.CompressFormat.WEBP) ? MIME_TYPE_PREVIEW_WEBP : MIME_TYPE_PREVIEW;
+            return client.newMessagePart(mimeType, preview);
+        } finally {
+            PreviewBuffer.recycle(buffer);
+        }
     }
 
-    private static int[] getOrientationData(ExifInterface exifInterface) {
-        // Try parsing Exif data.
-        int orientation = ORIENTATION_0;
-        int exifOrientation = ExifInterface.ORIENTATION_UNDEFINED;
 
-        exifOrientation = exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED);
+    private static int[] getOrientationData(int exifOrientation) {
+        int orientation = ORIENTATION_0;
         if (Log.isLoggable(Log.VERBOSE)) {
             Log.v("Found Exif orientation: " + exifOrientation);
         }
@@ -298,13 +526,119 @@ public class ThreePartImageUtils {
         return orientationData;
     }
 
-    private static long getFileSizeFromUri(Context context, Uri uri) {
-        Cursor cursor = context.getContentResolver().query(uri,
-                null, null, null, null);
-        cursor.moveToFirst();
-        long size = cursor.getLong(cursor.getColumnIndex(OpenableColumns.SIZE));
-        cursor.close();
+    /**
+     * Reusable in-memory target for compressing previews.  Its contents are copied out exactly
+     * once, splicing in an EXIF orientation segment on the way, so buffers return to the pool as
+     * soon as the preview part is created.
+     */
+    private static class PreviewBuffer extends ByteArrayOutputStream {
+        private static final int INITIAL_CAPACITY = 64 * 1024;
+        private static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+        private static final int MAX_POOLED = 2;
+        private static final ArrayDeque<PreviewBuffer> sPool = new ArrayDeque<>();
+
+        // APP1 segment with a big-endian TIFF header and a single IFD0 entry for the orientation
+        private static final int EXIF_SEGMENT_LENGTH = 36;
+        private static final int EXIF_ORIENTATION_OFFSET = 28;
+        private static final byte[] EXIF_SEGMENT = new byte[]{
+                (byte) 0xFF, (byte) 0xE1, 0, EXIF_SEGMENT_LENGTH - 2,
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 0x2A, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 0, 0, 0,
+                0, 0, 0, 0
+        };
+
+        static PreviewBuffer obtain() {
+            synchronized (sPool) {
+                PreviewBuffer buffer = sPool.poll();
+                if (buffer != null) return buffer;
+            }
+            return new PreviewBuffer();
+        }
+
+        static void recycle(PreviewBuffer buffer) {
+            if (buffer.buf.length > MAX_POOLED_CAPACITY) return;
+            buffer.reset();
+            synchronized (sPool) {
+                if (sPool.size() < MAX_POOLED) sPool.add(buffer);
+            }
+        }
+
+        private PreviewBuffer() {
+            super(INITIAL_CAPACITY);
+        }
 
-        return size;
+        /**
+         * Returns a copy of the compressed JPEG with an EXIF segment for the given orientation
+         * inserted after its SOI marker, or a plain copy if there is no orientation to preserve.
+         */
+        byte[] toJpegWithOrientation(int exifOrientation) {
+            boolean isJpeg = count >= 2 && (buf[0] & 0xFF) == 0xFF && (buf[1] & 0xFF) == 0xD8;
+            if (!isJpeg || exifOrientation <= ExifInterface.ORIENTATION_NORMAL) return toByteArray();
+
+            byte[] jpeg = new byte[count + EXIF_SEGMENT_LENGTH];
+            System.arraycopy(buf, 0, jpeg, 0, 2);
+            System.arraycopy(EXIF_SEGMENT, 0, jpeg, 2, EXIF_SEGMENT_LENGTH);
+            jpeg[2 + EXIF_ORIENTATION_OFFSET] = (byte) (exifOrientation >> 8);
+            jpeg[2 + EXIF_ORIENTATION_OFFSET + 1] = (byte) exifOrientation;
+            System.arraycopy(buf, 2, jpeg, 2 + EXIF_SEGMENT_LENGTH, count - 2);
+            return jpeg;
+        }
+    }
+
+    /**
+     * Reads a ByteBuffer from its position to its limit without copying, leaving the buffer itself
+     * untouched.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+        private int mMark;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer.duplicate();
+            mMark = mBuffer.position();
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? (mBuffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) return 0;
+            if (!mBuffer.hasRemaining()) return -1;
+            int count = Math.min(length, mBuffer.remaining());
+            mBuffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) {
+            int skipped = (int) Math.max(0, Math.min(count, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            mMark = mBuffer.position();
+        }
+
+        @Override
+        public synchronized void reset() {
+            mBuffer.position(mMark);
+        }
     }
 }
@@ -0,0 +1,135 @@
+package com.layer.atlas.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide cache of fully rendered AtlasAvatar clusters, keyed by everything that affects the
+ * rendering: the sorted avatars with their URLs, the pixel size and the style.  A cluster is
+ * rendered once, after all of its images have loaded, and then shared by every AtlasAvatar
+ * displaying the same participants at the same size.
+ * <p>
+ * Views acquire a cluster bitmap while they draw it and release it when detached or rebound.
+ * Bitmaps evicted from the cache return to a small pool once no view holds them, and are reused
+ * for the next cluster of the same dimensions.  All methods must be called from the UI thread.
+ */
+public final class AvatarClusterCache {
+    private static final int MAX_POOLED = 4;
+    private static AvatarClusterCache sInstance;
+
+    private final LruCache<String, Bitmap> mClusters;
+    private final Map<Bitmap, Integer> mReferences = new IdentityHashMap<>();
+    private final Set<Bitmap> mEvicted = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+    private final List<Bitmap> mPool = new ArrayList<>();
+
+    public static AvatarClusterCache getInstance() {
+        if (sInstance == null) {
+            // Clusters are small; 1/32 of the heap holds a few hundred at typical row sizes
+            int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, Integer.MAX_VALUE);
+            sInstance = new AvatarClusterCache(maxBytes);
+        }
+        return sInstance;
+    }
+
+    private AvatarClusterCache(int maxBytes) {
+        mClusters = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue == newValue) return;
+                if (mReferences.containsKey(oldValue)) {
+                    mEvicted.add(oldValue);
+                } else {
+                    recycle(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns `true` if a rendered cluster exists for the given key.
+     */
+    public boolean contains(String key) {
+        return mClusters.get(key) != null;
+    }
+
+    /**
+     * Returns the rendered cluster for the given key and holds it until {@link #release(Bitmap)}
+     * is called, or returns `null` if the key is not cached.
+     *
+     * @param key Cluster key.
+     * @return The cluster bitmap, or `null`.
+     */
+    public Bitmap acquire(String key) {
+        Bitmap bitmap = mClusters.get(key);
+        if (bitmap == null) return null;
+        Integer references = mReferences.get(bitmap);
+        mReferences.put(bitmap, references == null ? 1 : references + 1);
+        return bitmap;
+    }
+
+    /**
+     * Releases a cluster bitmap returned by {@link #acquire(String)}.  The bitmap must not be
+     * drawn after releasing it.
+     *
+     * @param bitmap Bitmap to release.
+     */
+    public void release(Bitmap bitmap) {
+        Integer references = mReferences.get(bitmap);
+        if (references == null) return;
+        if (references > 1) {
+            mReferences.put(bitmap, references - 1);
+            return;
+        }
+        mReferences.remove(bitmap);
+        if (mEvicted.remove(bitmap)) recycle(bitmap);
+    }
+
+    /**
+     * Returns a cleared bitmap to render a new cluster into, reusing a pooled bitmap of the same
+     * dimensions when available.
+     *
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @return A transparent ARGB_8888 bitmap.
+     */
+    public Bitmap obtain(int width, int height) {
+        Iterator<Bitmap> iterator = mPool.iterator();
+        while (iterator.hasNext()) {
+            Bitmap pooled = iterator.next();
+            if (pooled.getWidth() != width || pooled.getHeight() != height) continue;
+            iterator.remove();
+            pooled.eraseColor(Color.TRANSPARENT);
+            return pooled;
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Caches a rendered cluster obtained from {@link #obtain(int, int)}.
+     *
+     * @param key    Cluster key.
+     * @param bitmap Rendered cluster.
+     */
+    public void put(String key, Bitmap bitmap) {
+        mClusters.put(key, bitmap);
+    }
+
+    private void recycle(Bitmap bitmap) {
+        if (mPool.size() >= MAX_POOLED) mPool.remove(0);
+        mPool.add(bitmap);
+    }
+}
@@ -0,0 +1,164 @@
+package com.layer.atlas.util;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Target;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Loads square, center-cropped avatar images through Picasso, coalescing concurrent loads of the
+ * same URL at the same size into a single request.  The result is fanned out to every waiting
+ * listener.  Each request counts its listeners, and the underlying Picasso request is cancelled
+ * only when its last listener cancels.  Images are not transformed; AtlasAvatar clips them to
+ * their shape at draw time.  All methods must be called from the UI thread.
+ */
+public final class AvatarImageLoader {
+    public static final String TAG = AvatarImageLoader.class.getSimpleName();
+
+    private static final Map<Picasso, AvatarImageLoader> sLoaders = new WeakHashMap<>();
+
+    // Weak, so the loader held by sLoaders doesn't keep its Picasso key reachable
+    private final WeakReference<Picasso> mPicasso;
+    private final Map<String, Request> mRequests = new HashMap<>();
+    private final Map<Listener, Request> mRequestsByListener = new HashMap<>();
+
+    public static AvatarImageLoader getInstance(Picasso picasso) {
+        AvatarImageLoader loader = sLoaders.get(picasso);
+        if (loader == null) {
+            loader = new AvatarImageLoader(picasso);
+            sLoaders.put(picasso, loader);
+        }
+        return loader;
+    }
+
+    private AvatarImageLoader(Picasso picasso) {
+        mPicasso = new WeakReference<>(picasso);
+    }
+
+    /**
+     * Loads an avatar image, joining an in-flight load of the same URL and size if one
+     * exists.  Any previous load for the listener is cancelled.  The listener may be alerted
+     * before this method returns if the image is in Picasso's memory cache.
+     *
+     * @param url      Avatar image URL.
+     * @param size     Width and height in pixels.
+     * @param listener Listener to alert when the image loads or fails.
+     */
+    public void load(String url, int size, Listener listener) {
+        Picasso picasso = mPicasso.get();
+        if (picasso == null) return;
+        String key = size + ":" + url;
+        Request current = mRequestsByListener.get(listener);
+        if (current != null) {
+            if (current.mKey.equals(key)) return;
+            cancel(listener);
+        }
+
+        Request request = mRequests.get(key);
+        boolean start = (request == null);
+        if (start) {
+            request = new Request(key);
+            mRequests.put(key, request);
+        }
+        request.mListeners.add(listener);
+        mRequestsByListener.put(listener, request);
+        if (!start) return;
+
+        picasso.load(url)
+                .tag(TAG).noPlaceholder().noFade()
+                .centerCrop().resize(size, size)
+                .into(request);
+    }
+
+    /**
+     * Warms Picasso's memory cache with an avatar image at lower priority than visible loads.
+     * Does nothing if the same image is already loading.
+     *
+     * @param url  Avatar image URL.
+     * @param size Width and height in pixels, as later passed to {@link #load(String, int, Listener)}.
+     */
+    public void prefetch(String url, int size) {
+        Picasso picasso = mPicasso.get();
+        if (picasso == null || mRequests.containsKey(size + ":" + url)) return;
+        picasso.load(url)
+                .tag(TAG).priority(Picasso.Priority.LOW)
+                .centerCrop().resize(size, size)
+                .fetch();
+    }
+
+    /**
+     * Stops alerting the listener of its current load.  The load itself is cancelled if no other
+     * listener is waiting for it.
+     *
+     * @param listener Listener to cancel.
+     */
+    public void cancel(Listener listener) {
+        Request request = mRequestsByListener.remove(listener);
+        if (request == null) return;
+        request.mListeners.remove(listener);
+        if (!request.mListeners.isEmpty()) return;
+        mRequests.remove(request.mKey);
+        Picasso picasso = mPicasso.get();
+        if (picasso != null) picasso.cancelRequest(request);
+    }
+
+    /**
+     * Alerted on the UI thread when an avatar load completes.
+     */
+    public interface Listener {
+        void onAvatarLoaded(Bitmap bitmap);
+
+        void onAvatarFailed();
+    }
+
+    /**
+     * One Picasso request shared by all listeners waiting for the same URL and size.  Held
+     * strongly in the request maps, since Picasso only holds its targets weakly.
+     */
+    private class Request implements Target {
+        private final String mKey;
+        private final Set<Listener> mListeners = new LinkedHashSet<>();
+
+        Request(String key) {
+            mKey = key;
+        }
+
+        private List<Listener> finish() {
+            List<Listener> listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+            mRequests.remove(mKey);
+            for (Listener listener : listeners) {
+                mRequestsByListener.remove(listener);
+            }
+            return listeners;
+        }
+
+        @Override
+        public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
+            for (Listener listener : finish()) {
+                listener.onAvatarLoaded(bitmap);
+            }
+        }
+
+        @Override
+        public void onBitmapFailed(Drawable errorDrawable) {
+            for (Listener listener : finish()) {
+                listener.onAvatarFailed();
+            }
+        }
+
+        @Override
+        public void onPrepareLoad(Drawable placeHolderDrawable) {
+        }
+    }
+}
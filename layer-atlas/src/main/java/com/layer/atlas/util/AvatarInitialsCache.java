@@ -0,0 +1,105 @@
+package com.layer.atlas.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of pre-rendered initials avatars: a filled circle or rounded square with
+ * centered initials.  Entries are keyed by initials, size, shape, text size, typeface and colours,
+ * so drawing an initials avatar is a single bitmap blit instead of measuring and drawing text on
+ * every frame.  All methods must be called from the UI thread.
+ */
+public final class AvatarInitialsCache {
+    private static AvatarInitialsCache sInstance;
+
+    private final LruCache<String, Bitmap> mGlyphs;
+    private final Paint mPaintText = new Paint();
+    private final Paint mPaintBackground = new Paint();
+    private final Rect mBounds = new Rect();
+    private final RectF mShape = new RectF();
+
+    public static AvatarInitialsCache getInstance() {
+        if (sInstance == null) {
+            // Glyphs are smaller than clusters, so half the cluster cache budget holds plenty
+            int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 64, Integer.MAX_VALUE);
+            sInstance = new AvatarInitialsCache(maxBytes);
+        }
+        return sInstance;
+    }
+
+    private AvatarInitialsCache(int maxBytes) {
+        mGlyphs = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        mPaintText.setAntiAlias(true);
+        mPaintText.setSubpixelText(true);
+        mPaintBackground.setAntiAlias(true);
+    }
+
+    /**
+     * Returns the cache key for an initials avatar.  Callers drawing the same avatar repeatedly
+     * should compute it once and pass it to get().
+     *
+     * @param initials        Initials to draw.
+     * @param diameter        Width and height in pixels.
+     * @param cornerRadius    Corner radius of a rounded square in pixels, or negative for a circle.
+     * @param textSize        Text size in pixels.
+     * @param typeface        Typeface for the initials, or `null` for the default.
+     * @param textColor       Colour of the initials.
+     * @param backgroundColor Colour of the shape.
+     * @return The key identifying the rendered avatar.
+     */
+    public static String getKey(String initials, int diameter, float cornerRadius, float textSize, Typeface typeface,
+                                int textColor, int backgroundColor) {
+        return new StringBuilder()
+                .append(diameter).append(',').append(cornerRadius).append(',').append(textSize)
+                .append(',').append(System.identityHashCode(typeface))
+                .append(',').append(textColor).append(',').append(backgroundColor)
+                .append(':').append(initials).toString();
+    }
+
+    /**
+     * Returns a rendered initials avatar, rendering and caching it first if needed.
+     *
+     * @param key             Key returned by getKey() for the remaining arguments.
+     * @param initials        Initials to draw.
+     * @param diameter        Width and height in pixels.
+     * @param cornerRadius    Corner radius of a rounded square in pixels, or negative for a circle.
+     * @param textSize        Text size in pixels.
+     * @param typeface        Typeface for the initials, or `null` for the default.
+     * @param textColor       Colour of the initials.
+     * @param backgroundColor Colour of the shape.
+     * @return A `diameter` x `diameter` bitmap.
+     */
+    public Bitmap get(String key, String initials, int diameter, float cornerRadius, float textSize,
+                      Typeface typeface, int textColor, int backgroundColor) {
+        Bitmap glyph = mGlyphs.get(key);
+        if (glyph != null) return glyph;
+
+        glyph = Bitmap.createBitmap(diameter, diameter, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(glyph);
+        float radius = diameter / 2f;
+        mPaintBackground.setColor(backgroundColor);
+        if (cornerRadius < 0f) {
+            canvas.drawCircle(radius, radius, radius, mPaintBackground);
+        } else {
+            mShape.set(0f, 0f, diameter, diameter);
+            canvas.drawRoundRect(mShape, cornerRadius, cornerRadius, mPaintBackground);
+        }
+        mPaintText.setTypeface(typeface);
+        mPaintText.setColor(textColor);
+        mPaintText.setTextSize(textSize);
+        mPaintText.getTextBounds(initials, 0, initials.length(), mBounds);
+        canvas.drawText(initials, radius - mBounds.centerX(), radius - mBounds.centerY() - 1f, mPaintText);
+        mGlyphs.put(key, glyph);
+        return glyph;
+    }
+}
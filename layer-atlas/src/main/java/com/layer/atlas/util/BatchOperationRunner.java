@@ -0,0 +1,239 @@
+package com.layer.atlas.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies an operation to many items on a background thread, and coalesces the row updates the
+ * resulting change callbacks would otherwise issue one item at a time.
+ * <p>
+ * Adapters route their query callbacks through the notify methods of this class.  While a batch
+ * is running, and for a short settle time afterwards, change notifications are merged into one
+ * dirty span of positions, which is notified with a single notifyItemRangeChanged() when the batch
+ * settles.  Inserts, removals and moves are notified immediately, since RecyclerView may lay out
+ * in between and must never see item counts it was not told about; they shift the dirty span
+ * instead.  Outside of batches, every notification passes straight through.
+ */
+public class BatchOperationRunner {
+    // Change events for a batch keep arriving for a while after its last operation returns
+    private static final long SETTLE_MS = 500;
+    private static final int IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+    // Batches run one at a time on their own thread, so they never hold up AsyncTasks
+    private static final ExecutorService sExecutor;
+
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "AtlasBatchOperation");
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        sExecutor = executor;
+    }
+
+    private final RecyclerView.Adapter mAdapter;
+    private final Handler mUiThreadHandler;
+    private int mBatchesInFlight = 0;
+
+    // Dirty span [mDirtyStart, mDirtyEnd) and its merged payload; empty when start == end
+    private int mDirtyStart = 0;
+    private int mDirtyEnd = 0;
+    private Object mDirtyPayload;
+
+    private final Runnable mSettled = new Runnable() {
+        @Override
+        public void run() {
+            mBatchesInFlight--;
+            if (mBatchesInFlight == 0) flushChanges();
+        }
+    };
+
+    public BatchOperationRunner(RecyclerView.Adapter adapter) {
+        mAdapter = adapter;
+        mUiThreadHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Applies an operation to each item on a background thread.  Call from the UI thread.
+     *
+     * @param items     Items to apply the operation to.
+     * @param operation Operation to apply.
+     * @param callback  Alerted on the UI thread once all items were processed, or `null`.
+     * @param <T>       Type of the items.
+     */
+    public <T> void run(Collection<T> items, final Operation<T> operation, final Callback callback) {
+        final List<T> batch = new ArrayList<>(items);
+        mBatchesInFlight++;
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int applied = 0;
+                for (T item : batch) {
+                    try {
+                        operation.apply(item);
+                        applied++;
+                    } catch (Exception e) {
+                        if (Log.isLoggable(Log.ERROR)) {
+                            Log.e("Batch operation failed for " + item, e);
+                        }
+                    }
+                }
+                final int count = applied;
+                mUiThreadHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (callback != null) callback.onBatchComplete(count);
+                    }
+                });
+                mUiThreadHandler.postDelayed(mSettled, SETTLE_MS);
+            }
+        });
+    }
+
+    /**
+     * Returns `true` if a batch is running or settling.
+     */
+    public boolean isRunning() {
+        return mBatchesInFlight > 0;
+    }
+
+    /**
+     * Notifies a changed range, or merges it into the dirty span while a batch is running.
+     * Payloads of merged changes are combined: Integer payloads are OR'ed as bit flags, equal
+     * payloads are kept, and any other mix becomes `null`, which rebinds whole rows.
+     *
+     * @param positionStart First changed position.
+     * @param itemCount     Number of changed positions.
+     * @param payload       Change payload, or `null`.
+     */
+    public void notifyItemRangeChanged(int positionStart, int itemCount, Object payload) {
+        if (itemCount <= 0) return;
+        if (mBatchesInFlight == 0) {
+            mAdapter.notifyItemRangeChanged(positionStart, itemCount, payload);
+            return;
+        }
+        if (mDirtyStart == mDirtyEnd) {
+            mDirtyStart = positionStart;
+            mDirtyEnd = positionStart + itemCount;
+            mDirtyPayload = payload;
+            return;
+        }
+        mDirtyStart = Math.min(mDirtyStart, positionStart);
+        mDirtyEnd = Math.max(mDirtyEnd, positionStart + itemCount);
+        mDirtyPayload = mergePayloads(mDirtyPayload, payload);
+    }
+
+    public void notifyItemRangeInserted(int positionStart, int itemCount) {
+        if (itemCount <= 0) return;
+        shiftForInsert(positionStart, itemCount);
+        mAdapter.notifyItemRangeInserted(positionStart, itemCount);
+    }
+
+    public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+        if (itemCount <= 0) return;
+        shiftForRemove(positionStart, itemCount);
+        mAdapter.notifyItemRangeRemoved(positionStart, itemCount);
+    }
+
+    public void notifyItemMoved(int fromPosition, int toPosition) {
+        if (mDirtyStart != mDirtyEnd) {
+            boolean movedDirty = fromPosition >= mDirtyStart && fromPosition < mDirtyEnd;
+            shiftForRemove(fromPosition, 1);
+            shiftForInsert(toPosition, 1);
+            if (movedDirty && mDirtyStart == mDirtyEnd) {
+                mDirtyStart = toPosition;
+                mDirtyEnd = toPosition + 1;
+            } else if (movedDirty) {
+                mDirtyStart = Math.min(mDirtyStart, toPosition);
+                mDirtyEnd = Math.max(mDirtyEnd, toPosition + 1);
+            }
+        }
+        mAdapter.notifyItemMoved(fromPosition, toPosition);
+    }
+
+    private void shiftForInsert(int positionStart, int itemCount) {
+        if (mDirtyStart == mDirtyEnd) return;
+        if (positionStart <= mDirtyStart) {
+            mDirtyStart += itemCount;
+            mDirtyEnd += itemCount;
+        } else if (positionStart < mDirtyEnd) {
+            mDirtyEnd += itemCount;
+        }
+    }
+
+    private void shiftForRemove(int positionStart, int itemCount) {
+        if (mDirtyStart == mDirtyEnd) return;
+        int removedEnd = positionStart + itemCount;
+        if (removedEnd <= mDirtyStart) {
+            mDirtyStart -= itemCount;
+            mDirtyEnd -= itemCount;
+        } else if (positionStart < mDirtyEnd) {
+            int start = Math.min(mDirtyStart, positionStart);
+            int end = (mDirtyEnd > removedEnd) ? mDirtyEnd - itemCount : positionStart;
+            mDirtyStart = start;
+            mDirtyEnd = Math.max(start, end);
+        }
+    }
+
+    /**
+     * Notifies that the whole data set changed, dropping any dirty span it covers.
+     */
+    public void notifyDataSetChanged() {
+        mDirtyStart = mDirtyEnd = 0;
+        mDirtyPayload = null;
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private void flushChanges() {
+        int start = mDirtyStart;
+        int end = Math.min(mDirtyEnd, mAdapter.getItemCount());
+        Object payload = mDirtyPayload;
+        mDirtyStart = mDirtyEnd = 0;
+        mDirtyPayload = null;
+        if (end > start) mAdapter.notifyItemRangeChanged(start, end - start, payload);
+    }
+
+    private static Object mergePayloads(Object a, Object b) {
+        if (a == null || b == null) return null;
+        if (a instanceof Integer && b instanceof Integer) return (Integer) a | (Integer) b;
+        return a.equals(b) ? a : null;
+    }
+
+    /**
+     * An operation applied to each item of a batch on a background thread.
+     */
+    public interface Operation<T> {
+        void apply(T item);
+    }
+
+    /**
+     * Alerted on the UI thread when a batch completes.
+     */
+    public interface Callback {
+        /**
+         * @param count Number of items the operation was applied to without error.
+         */
+        void onBatchComplete(int count);
+    }
+}
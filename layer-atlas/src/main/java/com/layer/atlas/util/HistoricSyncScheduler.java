@@ -0,0 +1,251 @@
+package com.layer.atlas.util;
+
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.layer.atlas.adapters.AtlasBaseAdapter;
+import com.layer.sdk.changes.LayerChange;
+import com.layer.sdk.changes.LayerChangeEvent;
+import com.layer.sdk.listeners.LayerChangeEventListener;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.LayerObject;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tops up the local history of Conversations shown in an adapter on a single background thread.
+ * Adapter positions reported with {@link #schedule(int, int)} are coalesced into one pending
+ * range, and calls to {@link Conversation#syncMoreHistoricMessages(int)} are rate-limited.  Local
+ * history sizes come from a {@link LocalMessageCountTracker} rather than per-Conversation count
+ * queries.
+ * <p>
+ * A Conversation counts as checked once its local history was compared with the desired amount,
+ * which requires it to have more history available.  Checked Conversations are skipped until the
+ * desired amount or their historic sync status changes, so Conversations that were still syncing
+ * or whose sync failed are checked again.  Register the scheduler as a LayerChangeEventListener to
+ * see those status changes.
+ */
+public class HistoricSyncScheduler implements LayerChangeEventListener.BackgroundThread.Weak {
+    private static final long DEFAULT_MIN_SYNC_INTERVAL_MS = 250;
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+
+    private final LocalMessageCountTracker mCountTracker;
+    private final AtlasBaseAdapter<Conversation> mAdapter;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private volatile long mDesiredHistory = 0;
+    private volatile long mMinSyncIntervalMs = DEFAULT_MIN_SYNC_INTERVAL_MS;
+
+    // Guarded by mLock
+    private final Object mLock = new Object();
+    private int mDirtyStart = -1;
+    private int mDirtyEnd = -1;
+    private boolean mDrainScheduled = false;
+    private final Map<Uri, Conversation> mPending = new LinkedHashMap<>();
+    private final Set<Uri> mSeen = new HashSet<>();
+
+    // Only accessed from the executor thread
+    private long mNextSyncAllowedAt = 0;
+
+    public HistoricSyncScheduler(LocalMessageCountTracker countTracker, AtlasBaseAdapter<Conversation> adapter) {
+        mCountTracker = countTracker;
+        mAdapter = adapter;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "AtlasHistoricSync");
+            }
+        });
+        mExecutor.setKeepAliveTime(IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets the number of Messages each Conversation should have locally.  Changing the amount
+     * allows previously checked Conversations to be checked again.
+     *
+     * @param desiredHistory Number of Messages to keep locally, or 0 to disable.
+     * @return This HistoricSyncScheduler.
+     */
+    public HistoricSyncScheduler setDesiredHistory(long desiredHistory) {
+        synchronized (mLock) {
+            if (mDesiredHistory != desiredHistory) {
+                mSeen.clear();
+                mPending.clear();
+            }
+            mDesiredHistory = desiredHistory;
+        }
+        return this;
+    }
+
+    public long getDesiredHistory() {
+        return mDesiredHistory;
+    }
+
+    /**
+     * Sets the minimum time between two calls to syncMoreHistoricMessages().
+     *
+     * @param minSyncIntervalMs Minimum interval in milliseconds.
+     * @return This HistoricSyncScheduler.
+     */
+    public HistoricSyncScheduler setMinSyncInterval(long minSyncIntervalMs) {
+        mMinSyncIntervalMs = minSyncIntervalMs;
+        return this;
+    }
+
+    /**
+     * Queues the Conversations at the given adapter positions for a history check.  Safe to call
+     * from the UI thread; positions are resolved on the background thread.
+     *
+     * @param start  First adapter position to check.
+     * @param length Number of positions to check.
+     */
+    public void schedule(int start, int length) {
+        if (mDesiredHistory <= 0 || length <= 0 || mExecutor.isShutdown()) return;
+        synchronized (mLock) {
+            if (mDirtyStart < 0) {
+                mDirtyStart = start;
+                mDirtyEnd = start + length;
+            } else {
+                mDirtyStart = Math.min(mDirtyStart, start);
+                mDirtyEnd = Math.max(mDirtyEnd, start + length);
+            }
+            if (mDrainScheduled) return;
+            mDrainScheduled = true;
+        }
+        mExecutor.execute(mDrain);
+    }
+
+    /**
+     * Queues Conversations whose historic sync status changed for another check, for example once
+     * the initial sync finished or a failed sync can be retried.
+     */
+    @Override
+    public void onChangeEvent(LayerChangeEvent layerChangeEvent) {
+        if (mDesiredHistory <= 0 || mExecutor.isShutdown()) return;
+        boolean queued = false;
+        for (LayerChange change : layerChangeEvent.getChanges()) {
+            if (change.getObjectType() != LayerObject.Type.CONVERSATION) continue;
+            if (change.getChangeType() != LayerChange.Type.UPDATE) continue;
+            if (!"historicSyncStatus".equals(change.getAttributeName())) continue;
+            Conversation conversation = (Conversation) change.getObject();
+            Uri id = conversation.getId();
+            synchronized (mLock) {
+                mSeen.remove(id);
+                if (conversation.getHistoricSyncStatus() != Conversation.HistoricSyncStatus.MORE_AVAILABLE) continue;
+                mPending.put(id, conversation);
+                queued = true;
+            }
+        }
+        if (!queued) return;
+        synchronized (mLock) {
+            if (mDrainScheduled) return;
+            mDrainScheduled = true;
+        }
+        mExecutor.execute(mDrain);
+    }
+
+    /**
+     * Stops the background thread.  Pending checks are dropped.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    private void drain() {
+        while (true) {
+            int start;
+            int end;
+            synchronized (mLock) {
+                start = mDirtyStart;
+                end = mDirtyEnd;
+                mDirtyStart = -1;
+                mDirtyEnd = -1;
+            }
+            if (start >= 0) collect(start, end);
+
+            long wait = mNextSyncAllowedAt - SystemClock.elapsedRealtime();
+            if (wait > 0) {
+                synchronized (mLock) {
+                    if (mPending.isEmpty() && mDirtyStart < 0) {
+                        mDrainScheduled = false;
+                        return;
+                    }
+                }
+                mExecutor.schedule(mDrain, wait, TimeUnit.MILLISECONDS);
+                return;
+            }
+
+            Conversation next = null;
+            synchronized (mLock) {
+                Iterator<Conversation> iterator = mPending.values().iterator();
+                if (iterator.hasNext()) {
+                    next = iterator.next();
+                    iterator.remove();
+                } else if (mDirtyStart < 0) {
+                    mDrainScheduled = false;
+                    return;
+                }
+            }
+            if (next != null) check(next);
+        }
+    }
+
+    private void collect(int start, int end) {
+        for (int i = start; i < end; i++) {
+            Conversation conversation;
+            try {
+                conversation = mAdapter.getItem(i);
+            } catch (IndexOutOfBoundsException e) {
+                // Concurrent modification
+                break;
+            }
+            if (conversation == null) continue;
+            Uri id = conversation.getId();
+            synchronized (mLock) {
+                if (!mSeen.contains(id)) mPending.put(id, conversation);
+            }
+        }
+    }
+
+    private void check(Conversation conversation) {
+        long desiredHistory = mDesiredHistory;
+        if (desiredHistory <= 0) return;
+        // Still syncing or failed; checked again when collected or when its status changes
+        if (conversation.getHistoricSyncStatus() != Conversation.HistoricSyncStatus.MORE_AVAILABLE) {
+            return;
+        }
+        long delta = desiredHistory - mCountTracker.getLocalMessageCount(conversation);
+        synchronized (mLock) {
+            // A newer desired amount may have cleared mSeen while we were counting
+            if (desiredHistory != mDesiredHistory) return;
+            mSeen.add(conversation.getId());
+        }
+        if (delta <= 0) return;
+        conversation.syncMoreHistoricMessages((int) delta);
+        mNextSyncAllowedAt = SystemClock.elapsedRealtime() + mMinSyncIntervalMs;
+        if (Log.isLoggable(Log.VERBOSE)) {
+            Log.v("Requested " + delta + " historic messages for " + conversation.getId());
+        }
+    }
+}
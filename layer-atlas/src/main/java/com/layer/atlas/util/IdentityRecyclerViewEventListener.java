@@ -12,51 +12,95 @@ import com.layer.sdk.messaging.LayerObject;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
 /**
  * A {@link LayerChangeEventListener} that looks for changes to identities that are bound to
  * view holders in a {@link RecyclerView.Adapter}, and trigger updates in the adapter accordingly.
+ * <p>
+ * Identities are indexed by the view holders currently displaying them, so the adapter must report
+ * binds with {@link #addIdentities(RecyclerView.ViewHolder, Set)} and recycles with
+ * {@link #removeIdentities(RecyclerView.ViewHolder)}.  Positions are resolved when a change
+ * arrives, and each affected position is notified once per change event with
+ * {@link #PAYLOAD_IDENTITY}, so the adapter can refresh only identity-dependent views.
  */
 public class IdentityRecyclerViewEventListener implements LayerChangeEventListener.Weak {
+    /**
+     * Change payload for rows whose bound identities changed.
+     */
+    public static final Object PAYLOAD_IDENTITY = new Object();
+
     private final RecyclerView.Adapter mAdapter;
-    private final Map<Uri, Set<Integer>> identityPositions = new HashMap<>();
+    private final Map<Uri, Set<RecyclerView.ViewHolder>> mViewHoldersByIdentity = new HashMap<>();
+    private final Map<RecyclerView.ViewHolder, Set<Uri>> mIdentitiesByViewHolder = new HashMap<>();
 
     public IdentityRecyclerViewEventListener(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
     }
 
     /**
-     * Set identities associated with the position in the adapter.
+     * Associates identities with a bound view holder.  Call from onBindViewHolder().
      *
-     * @param position Position in the adapter that the identities are bound to
+     * @param viewHolder   View holder the identities are bound to.
      * @param participants Identities to check for updates. Only the Uri of the identity
      *                     is stored.
      */
-    public void addIdentityPosition(int position, Set<Identity> participants) {
+    public void addIdentities(RecyclerView.ViewHolder viewHolder, Set<Identity> participants) {
+        Set<Uri> ids = mIdentitiesByViewHolder.get(viewHolder);
+        if (ids == null) {
+            ids = new HashSet<>();
+            mIdentitiesByViewHolder.put(viewHolder, ids);
+        }
         for (Identity participant : participants) {
-            Set<Integer> positions = identityPositions.get(participant.getId());
-            if (positions == null) {
-                positions = new HashSet<>();
-                identityPositions.put(participant.getId(), positions);
+            if (participant == null || !ids.add(participant.getId())) continue;
+            Set<RecyclerView.ViewHolder> viewHolders = mViewHoldersByIdentity.get(participant.getId());
+            if (viewHolders == null) {
+                viewHolders = new HashSet<>();
+                mViewHoldersByIdentity.put(participant.getId(), viewHolders);
             }
-            positions.add(position);
+            viewHolders.add(viewHolder);
+        }
+    }
+
+    /**
+     * Removes all identities associated with a view holder.  Call from onViewRecycled(), and before
+     * rebinding a view holder to different identities.
+     *
+     * @param viewHolder View holder that no longer displays its identities.
+     */
+    public void removeIdentities(RecyclerView.ViewHolder viewHolder) {
+        Set<Uri> ids = mIdentitiesByViewHolder.remove(viewHolder);
+        if (ids == null) return;
+        for (Uri id : ids) {
+            Set<RecyclerView.ViewHolder> viewHolders = mViewHoldersByIdentity.get(id);
+            if (viewHolders == null) continue;
+            viewHolders.remove(viewHolder);
+            if (viewHolders.isEmpty()) mViewHoldersByIdentity.remove(id);
         }
     }
 
     @Override
     public void onChangeEvent(LayerChangeEvent layerChangeEvent) {
+        Set<RecyclerView.ViewHolder> changed = null;
         for (LayerChange change : layerChangeEvent.getChanges()) {
             if (change.getObjectType().equals(LayerObject.Type.IDENTITY)) {
                 Uri id = ((Identity) change.getObject()).getId();
-                Set<Integer> positions = identityPositions.get(id);
-                if (positions != null) {
-                    for (Integer position : positions) {
-                        mAdapter.notifyItemChanged(position);
-                    }
-                }
+                Set<RecyclerView.ViewHolder> viewHolders = mViewHoldersByIdentity.get(id);
+                if (viewHolders == null) continue;
+                if (changed == null) changed = new LinkedHashSet<>();
+                changed.addAll(viewHolders);
             }
         }
+        if (changed == null) return;
+        Set<Integer> positions = new LinkedHashSet<>();
+        for (RecyclerView.ViewHolder viewHolder : changed) {
+            int position = viewHolder.getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) positions.add(position);
+        }
+        for (int position : positions) {
+            mAdapter.notifyItemChanged(position, PAYLOAD_IDENTITY);
+        }
     }
 }
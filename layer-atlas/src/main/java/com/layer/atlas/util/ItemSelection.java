@@ -0,0 +1,135 @@
+package com.layer.atlas.util;
+
+import android.net.Uri;
+import android.support.v7.widget.RecyclerView;
+
+import com.layer.atlas.adapters.AtlasBaseAdapter;
+import com.layer.sdk.query.Queryable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-select state for an Atlas adapter.  While active, tapping items toggles their selection
+ * instead of opening them.  Selection changes notify only the affected rows, with the given
+ * payload.
+ *
+ * @param <Tquery> Type of the selectable items.
+ */
+public class ItemSelection<Tquery extends Queryable> {
+    private final RecyclerView.Adapter mAdapter;
+    private final AtlasBaseAdapter<Tquery> mBaseAdapter;
+    private final Object mPayload;
+    private final Map<Uri, Tquery> mSelected = new LinkedHashMap<>();
+    private boolean mActive = false;
+    private OnSelectionChangedListener<Tquery> mListener;
+
+    /**
+     * @param adapter Adapter showing the items; must also implement AtlasBaseAdapter.
+     * @param payload Payload passed to notifyItemChanged() for rows whose selection changed, or
+     *                `null` to rebind whole rows.
+     */
+    public <T extends RecyclerView.Adapter & AtlasBaseAdapter<Tquery>> ItemSelection(T adapter, Object payload) {
+        mAdapter = adapter;
+        mBaseAdapter = adapter;
+        mPayload = payload;
+    }
+
+    public ItemSelection<Tquery> setOnSelectionChangedListener(OnSelectionChangedListener<Tquery> listener) {
+        mListener = listener;
+        return this;
+    }
+
+    public boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * Enters or leaves selection mode.  Leaving selection mode clears the selection.
+     *
+     * @param active Whether selection mode should be active.
+     * @return This ItemSelection.
+     */
+    public ItemSelection<Tquery> setActive(boolean active) {
+        if (mActive == active) return this;
+        mActive = active;
+        if (!active) clear();
+        if (mListener != null) mListener.onSelectionChanged(this);
+        return this;
+    }
+
+    public boolean isSelected(Tquery item) {
+        return item != null && mSelected.containsKey(item.getId());
+    }
+
+    /**
+     * Selects or deselects an item, entering selection mode if needed.
+     *
+     * @param item     Item to select or deselect.
+     * @param selected Whether the item should be selected.
+     * @return This ItemSelection.
+     */
+    public ItemSelection<Tquery> setSelected(Tquery item, boolean selected) {
+        if (item == null || isSelected(item) == selected) return this;
+        if (selected) {
+            mSelected.put(item.getId(), item);
+            mActive = true;
+        } else {
+            mSelected.remove(item.getId());
+        }
+        notifyItemChanged(item);
+        if (mListener != null) mListener.onSelectionChanged(this);
+        return this;
+    }
+
+    /**
+     * Toggles an item's selection.
+     *
+     * @param item Item to toggle.
+     * @return `true` if the item is now selected, or `false` otherwise.
+     */
+    public boolean toggle(Tquery item) {
+        boolean selected = !isSelected(item);
+        setSelected(item, selected);
+        return selected;
+    }
+
+    /**
+     * Returns the selected items, in the order they were selected.
+     */
+    public List<Tquery> getSelected() {
+        return new ArrayList<>(mSelected.values());
+    }
+
+    public int size() {
+        return mSelected.size();
+    }
+
+    /**
+     * Deselects all items, keeping selection mode as it is.
+     */
+    public void clear() {
+        if (mSelected.isEmpty()) return;
+        List<Tquery> items = getSelected();
+        mSelected.clear();
+        for (Tquery item : items) {
+            notifyItemChanged(item);
+        }
+        if (mListener != null) mListener.onSelectionChanged(this);
+    }
+
+    private void notifyItemChanged(Tquery item) {
+        Integer position = mBaseAdapter.getPosition(item);
+        if (position == null || position < 0) return;
+        mAdapter.notifyItemChanged(position, mPayload);
+    }
+
+    /**
+     * Alerted when items are selected or deselected, or selection mode is entered or left.
+     */
+    public interface OnSelectionChangedListener<Tquery extends Queryable> {
+        void onSelectionChanged(ItemSelection<Tquery> selection);
+    }
+}
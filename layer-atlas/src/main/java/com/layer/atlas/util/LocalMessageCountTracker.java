@@ -0,0 +1,269 @@
+package com.layer.atlas.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.layer.sdk.LayerClient;
+import com.layer.sdk.changes.LayerChange;
+import com.layer.sdk.changes.LayerChangeEvent;
+import com.layer.sdk.exceptions.LayerException;
+import com.layer.sdk.listeners.LayerAuthenticationListener;
+import com.layer.sdk.listeners.LayerChangeEventListener;
+import com.layer.sdk.messaging.Conversation;
+import com.layer.sdk.messaging.Identity;
+import com.layer.sdk.messaging.LayerObject;
+import com.layer.sdk.messaging.Message;
+import com.layer.sdk.query.Predicate;
+import com.layer.sdk.query.Query;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a per-Conversation count of locally available Messages, maintained incrementally from
+ * Message insert and delete change events and persisted between sessions per authenticated user.
+ * <p>
+ * Each persisted count is stored with the position of the Conversation's last Message at the time.
+ * A persisted count is trusted while that position still matches, since new Messages that synced
+ * while no tracker was listening move the last Message.  Otherwise the count is re-seeded with a
+ * single count query.  Older history only arrives when requested through
+ * syncMoreHistoricMessages() while a tracker is listening.  All persisted counts are dropped on
+ * deauthentication, because the SDK deletes local Messages then.
+ * <p>
+ * Counts only stay accurate while the tracker is registered, so there is one tracker per
+ * LayerClient, registered for the LayerClient's lifetime.  Use {@link #getInstance(Context, LayerClient)}.
+ */
+public class LocalMessageCountTracker implements LayerChangeEventListener.BackgroundThread.Weak {
+    private static final String PREFS_NAME_PREFIX = "atlas_local_message_counts_";
+    private static final long PERSIST_INTERVAL_MS = 5000;
+
+    private static final Map<LayerClient, LocalMessageCountTracker> sTrackers = new WeakHashMap<>();
+
+    private final Context mContext;
+    // Weak, so the tracker held by sTrackers doesn't keep its LayerClient key reachable
+    private final WeakReference<LayerClient> mLayerClient;
+    private final Map<Uri, Long> mCounts = new ConcurrentHashMap<>();
+
+    // Guarded by mCounts; positions are those of the last Message when each count was last set
+    private final Map<Uri, Long> mPositions = new HashMap<>();
+    private final Set<Uri> mSeeded = new HashSet<>();
+    private final Set<Uri> mDirty = new HashSet<>();
+    private final Set<Uri> mRemoved = new HashSet<>();
+    private String mLoadedUserId;
+    private long mLastPersistedAt = 0;
+
+    private final LayerAuthenticationListener mAuthenticationListener = new LayerAuthenticationListener.BackgroundThread() {
+        @Override
+        public void onAuthenticated(LayerClient layerClient, String userId) {
+        }
+
+        @Override
+        public void onDeauthenticated(LayerClient layerClient) {
+            clear();
+        }
+
+        @Override
+        public void onAuthenticationChallenge(LayerClient layerClient, String nonce) {
+        }
+
+        @Override
+        public void onAuthenticationError(LayerClient layerClient, LayerException e) {
+        }
+    };
+
+    /**
+     * Returns the tracker for the given LayerClient, creating and registering it the first time.
+     * The tracker stays registered for the LayerClient's lifetime, and is released with it.
+     */
+    public static synchronized LocalMessageCountTracker getInstance(Context context, LayerClient layerClient) {
+        LocalMessageCountTracker tracker = sTrackers.get(layerClient);
+        if (tracker == null) {
+            tracker = new LocalMessageCountTracker(context, layerClient);
+            layerClient.registerEventListener(tracker);
+            layerClient.registerAuthenticationListener(tracker.mAuthenticationListener);
+            sTrackers.put(layerClient, tracker);
+        }
+        return tracker;
+    }
+
+    private LocalMessageCountTracker(Context context, LayerClient layerClient) {
+        mContext = context.getApplicationContext();
+        mLayerClient = new WeakReference<>(layerClient);
+    }
+
+    /**
+     * Returns the number of Messages stored locally for the given Conversation.  Runs one count
+     * query unless a count tracked in this process, or a persisted count whose last Message
+     * position still matches, is available, so call from a background thread.
+     *
+     * @param conversation Conversation to count local Messages for.
+     * @return Number of locally stored Messages.
+     */
+    public long getLocalMessageCount(Conversation conversation) {
+        ensureLoaded();
+        Uri id = conversation.getId();
+        long position = getLastMessagePosition(conversation);
+        synchronized (mCounts) {
+            Long count = mCounts.get(id);
+            if (count != null && mSeeded.contains(id)) return count;
+            Long persistedPosition = mPositions.get(id);
+            if (count != null && persistedPosition != null && persistedPosition == position) {
+                mSeeded.add(id);
+                return count;
+            }
+        }
+
+        Query<Message> localCountQuery = Query.builder(Message.class)
+                .predicate(new Predicate(Message.Property.CONVERSATION, Predicate.Operator.EQUAL_TO, conversation))
+                .build();
+        LayerClient layerClient = mLayerClient.get();
+        if (layerClient == null) return 0;
+        long seeded = layerClient.executeQueryForCount(localCountQuery);
+        synchronized (mCounts) {
+            if (mSeeded.contains(id)) return mCounts.get(id);
+            mCounts.put(id, seeded);
+            mPositions.put(id, position);
+            mSeeded.add(id);
+            mDirty.add(id);
+        }
+        persist(false);
+        return seeded;
+    }
+
+    /**
+     * Writes any pending count changes to disk.
+     */
+    public void flush() {
+        persist(true);
+    }
+
+    @Override
+    public void onChangeEvent(LayerChangeEvent layerChangeEvent) {
+        ensureLoaded();
+        boolean changed = false;
+        synchronized (mCounts) {
+            for (LayerChange change : layerChangeEvent.getChanges()) {
+                if (change.getObjectType() == LayerObject.Type.CONVERSATION) {
+                    if (change.getChangeType() != LayerChange.Type.DELETE) continue;
+                    Uri id = ((Conversation) change.getObject()).getId();
+                    mSeeded.remove(id);
+                    mPositions.remove(id);
+                    if (mCounts.remove(id) != null) {
+                        mDirty.remove(id);
+                        mRemoved.add(id);
+                        changed = true;
+                    }
+                    continue;
+                }
+                if (change.getObjectType() != LayerObject.Type.MESSAGE) continue;
+
+                long delta;
+                if (change.getChangeType() == LayerChange.Type.INSERT) {
+                    delta = 1;
+                } else if (change.getChangeType() == LayerChange.Type.DELETE) {
+                    delta = -1;
+                } else {
+                    continue;
+                }
+                Conversation conversation = ((Message) change.getObject()).getConversation();
+                if (conversation == null) continue;
+                Uri id = conversation.getId();
+
+                // Unseeded Conversations get their baseline from a count query later
+                Long count = mCounts.get(id);
+                if (count == null || !mSeeded.contains(id)) continue;
+                mCounts.put(id, Math.max(0, count + delta));
+                mPositions.put(id, getLastMessagePosition(conversation));
+                mDirty.add(id);
+                changed = true;
+            }
+        }
+        if (changed) persist(false);
+    }
+
+    /**
+     * Forgets all counts of the loaded user, in memory and on disk.
+     */
+    private void clear() {
+        synchronized (mCounts) {
+            if (mLoadedUserId != null) getPreferences(mLoadedUserId).edit().clear().apply();
+            mCounts.clear();
+            mPositions.clear();
+            mSeeded.clear();
+            mDirty.clear();
+            mRemoved.clear();
+        }
+    }
+
+    private static long getLastMessagePosition(Conversation conversation) {
+        Message lastMessage = conversation.getLastMessage();
+        return (lastMessage == null) ? -1 : lastMessage.getPosition();
+    }
+
+    private void ensureLoaded() {
+        LayerClient layerClient = mLayerClient.get();
+        if (layerClient == null) return;
+        Identity user = layerClient.getAuthenticatedUser();
+        String userId = (user == null) ? null : user.getUserId();
+        synchronized (mCounts) {
+            if (userId == null ? mLoadedUserId == null : userId.equals(mLoadedUserId)) return;
+            mCounts.clear();
+            mPositions.clear();
+            mSeeded.clear();
+            mDirty.clear();
+            mRemoved.clear();
+            mLoadedUserId = userId;
+            if (userId == null) return;
+            for (Map.Entry<String, ?> entry : getPreferences(userId).getAll().entrySet()) {
+                // Stored as "count:lastMessagePosition"; anything else is from an older format
+                if (!(entry.getValue() instanceof String)) continue;
+                String value = (String) entry.getValue();
+                int separator = value.indexOf(':');
+                if (separator < 0) continue;
+                try {
+                    Uri id = Uri.parse(entry.getKey());
+                    long count = Long.parseLong(value.substring(0, separator));
+                    long position = Long.parseLong(value.substring(separator + 1));
+                    mCounts.put(id, count);
+                    mPositions.put(id, position);
+                } catch (NumberFormatException e) {
+                    // Malformed; re-seeded with a count query when first requested
+                }
+            }
+        }
+    }
+
+    private void persist(boolean force) {
+        synchronized (mCounts) {
+            if (mLoadedUserId == null) return;
+            if (mDirty.isEmpty() && mRemoved.isEmpty()) return;
+            long now = SystemClock.elapsedRealtime();
+            if (!force && now - mLastPersistedAt < PERSIST_INTERVAL_MS) return;
+            mLastPersistedAt = now;
+
+            SharedPreferences.Editor editor = getPreferences(mLoadedUserId).edit();
+            for (Uri id : mRemoved) {
+                editor.remove(id.toString());
+            }
+            for (Uri id : mDirty) {
+                Long count = mCounts.get(id);
+                Long position = mPositions.get(id);
+                if (count != null && position != null) editor.putString(id.toString(), count + ":" + position);
+            }
+            editor.apply();
+            mDirty.clear();
+            mRemoved.clear();
+        }
+    }
+
+    private SharedPreferences getPreferences(String userId) {
+        return mContext.getSharedPreferences(PREFS_NAME_PREFIX + Uri.encode(userId), Context.MODE_PRIVATE);
+    }
+}
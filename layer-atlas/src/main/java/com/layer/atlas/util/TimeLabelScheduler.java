@@ -0,0 +1,120 @@
+package com.layer.atlas.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Refreshes relative time labels ("Yesterday", days of the week) in a {@link RecyclerView.Adapter}
+ * when they go stale.  The adapter reports when each bound view holder's label expires, and on
+ * every system minute tick the scheduler issues notifyItemChanged() with the given payload for just
+ * the view holders whose labels have expired.  Ticks before the earliest expiry cost one
+ * comparison.  Clock and time zone changes expire all labels.
+ *
+ * @see Util#getTimeLabelExpiry(java.util.Date)
+ */
+public class TimeLabelScheduler {
+    private final RecyclerView.Adapter mAdapter;
+    private final Object mPayload;
+    private final Map<RecyclerView.ViewHolder, Long> mExpiries = new HashMap<>();
+    private long mNextExpiry = Long.MAX_VALUE;
+    private Context mContext;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_TIME_TICK.equals(intent.getAction())) {
+                refreshExpired(System.currentTimeMillis());
+            } else {
+                refreshExpired(Long.MAX_VALUE);
+            }
+        }
+    };
+
+    /**
+     * @param adapter Adapter to notify of rows with expired labels.
+     * @param payload Payload passed to notifyItemChanged(), or `null` to rebind whole rows.
+     */
+    public TimeLabelScheduler(RecyclerView.Adapter adapter, Object payload) {
+        mAdapter = adapter;
+        mPayload = payload;
+    }
+
+    /**
+     * Starts listening for minute ticks and clock changes.  Call when the adapter is attached.
+     *
+     * @param context Context to register the tick receiver with.
+     */
+    public void start(Context context) {
+        if (mContext != null) return;
+        mContext = context.getApplicationContext();
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIME_TICK);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        mContext.registerReceiver(mReceiver, filter);
+
+        // Ticks were missed while stopped
+        refreshExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Stops listening for minute ticks.  Tracked view holders are kept.
+     */
+    public void stop() {
+        if (mContext == null) return;
+        mContext.unregisterReceiver(mReceiver);
+        mContext = null;
+    }
+
+    /**
+     * Sets when a bound view holder's time label expires.  Call from onBindViewHolder().
+     *
+     * @param viewHolder View holder showing the label.
+     * @param expiresAt  Wall-clock time the label expires, or Long.MAX_VALUE if it never does.
+     */
+    public void track(RecyclerView.ViewHolder viewHolder, long expiresAt) {
+        if (expiresAt == Long.MAX_VALUE) {
+            untrack(viewHolder);
+            return;
+        }
+        mExpiries.put(viewHolder, expiresAt);
+        mNextExpiry = Math.min(mNextExpiry, expiresAt);
+    }
+
+    /**
+     * Stops tracking a view holder.  Call from onViewRecycled(), and when rebinding a view holder
+     * without a time label.
+     *
+     * @param viewHolder View holder no longer showing a label.
+     */
+    public void untrack(RecyclerView.ViewHolder viewHolder) {
+        // mNextExpiry may now be early; the next tick recomputes it
+        mExpiries.remove(viewHolder);
+    }
+
+    private void refreshExpired(long now) {
+        if (now < mNextExpiry) return;
+        long nextExpiry = Long.MAX_VALUE;
+        Iterator<Map.Entry<RecyclerView.ViewHolder, Long>> iterator = mExpiries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<RecyclerView.ViewHolder, Long> entry = iterator.next();
+            if (entry.getValue() > now) {
+                nextExpiry = Math.min(nextExpiry, entry.getValue());
+                continue;
+            }
+            // Rebinding tracks the view holder again with its new expiry
+            iterator.remove();
+            int position = entry.getKey().getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) continue;
+            mAdapter.notifyItemChanged(position, mPayload);
+        }
+        mNextExpiry = nextExpiry;
+    }
+}
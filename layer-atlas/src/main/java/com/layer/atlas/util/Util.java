@@ -153,6 +153,21 @@ public class Util {
         return identity.getDisplayName();
     }
 
+    /**
+     * Returns at most the first `maxChars` characters of the given text, without splitting a
+     * surrogate pair.
+     *
+     * @param text     Text to truncate, or `null`.
+     * @param maxChars Maximum number of characters to return; must be positive.
+     * @return The truncated text, or `null` if `text` is `null`.
+     */
+    public static String truncate(String text, int maxChars) {
+        if (maxChars <= 0) throw new IllegalArgumentException("maxChars must be positive");
+        if (text == null || text.length() <= maxChars) return text;
+        int end = Character.isHighSurrogate(text.charAt(maxChars - 1)) ? maxChars - 1 : maxChars;
+        return text.substring(0, end);
+    }
+
     public static String formatTime(Context context, Date date, DateFormat timeFormat, DateFormat dateFormat) {
         Calendar cal = Calendar.getInstance();
         cal.set(Calendar.HOUR_OF_DAY, 0);
@@ -206,6 +221,39 @@ public class Util {
         return timeBarDayText;
     }
 
+    /**
+     * Returns the time at which the label produced by formatTime() or formatTimeDay() for the given
+     * date next changes.  Labels only change at midnight: today becomes yesterday, yesterday
+     * becomes a day of the week, and a day of the week becomes a date once it is a week old.
+     *
+     * @param date Date the label was formatted from.
+     * @return Wall-clock time in milliseconds, or Long.MAX_VALUE if the label never changes.
+     */
+    public static long getTimeLabelExpiry(Date date) {
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        long todayMidnight = cal.getTimeInMillis();
+        if (date.getTime() <= todayMidnight - TIME_HOURS_24 * 7L) return Long.MAX_VALUE;
+
+        if (date.getTime() > todayMidnight - TIME_HOURS_24) {
+            // Today and yesterday change at the next midnight
+            cal.add(Calendar.DAY_OF_YEAR, 1);
+            return cal.getTimeInMillis();
+        }
+
+        // Days of the week change to a date at the eighth midnight after their own
+        cal.setTime(date);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.add(Calendar.DAY_OF_YEAR, 8);
+        return cal.getTimeInMillis();
+    }
+
     /**
      * Returns int[] {scaledWidth, scaledHeight} for dimensions that fit within the given maxWidth,
      * maxHeight at the given inWidth, inHeight aspect ratio.  If the in dimensions fit fully inside
@@ -0,0 +1,192 @@
+package com.layer.atlas.util.picasso;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Build;
+
+import com.layer.atlas.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Process-wide pool of mutable bitmaps that are no longer displayed, bucketed by dimensions and
+ * config.  Outgoing image processing, such as ThreePartImage preview decoding and scaling, draws
+ * into pooled bitmaps instead of allocating, and decodes into them through
+ * BitmapFactory.Options.inBitmap.  The pool holds at most a byte budget, evicting the least
+ * recently pooled bitmaps first, and shrinks or empties itself under memory pressure.
+ * <p>
+ * Only put bitmaps that nothing references anymore; a pooled bitmap may be overwritten at any
+ * time.  Bitmaps handed to Picasso or shown in views must never be pooled, which is why displayed
+ * images are not pooled: Picasso keeps serving them from its memory cache after their views are
+ * recycled.
+ */
+public final class BitmapPool implements ComponentCallbacks2 {
+    private static BitmapPool sInstance;
+
+    private final int mMaxBytes;
+    private final Map<String, ArrayDeque<Bitmap>> mBuckets = new HashMap<>();
+    private final LinkedList<Bitmap> mOrder = new LinkedList<>();
+    private int mBytes = 0;
+    private boolean mRegistered = false;
+
+    public static synchronized BitmapPool getInstance() {
+        if (sInstance == null) {
+            int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE);
+            sInstance = new BitmapPool(maxBytes);
+        }
+        return sInstance;
+    }
+
+    private BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Registers for memory pressure callbacks.  Safe to call repeatedly.
+     *
+     * @param context Context to register with.
+     * @return This BitmapPool.
+     */
+    public synchronized BitmapPool trimOnMemoryPressure(Context context) {
+        if (mRegistered) return this;
+        context.getApplicationContext().registerComponentCallbacks(this);
+        mRegistered = true;
+        return this;
+    }
+
+    /**
+     * Returns a transparent bitmap with the given dimensions and config, from the pool when one is
+     * available.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) return Bitmap.createBitmap(width, height, config);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Sets inBitmap and inMutable on decode options, if a pooled bitmap can hold the decoded image.
+     * Before KitKat, only bitmaps of exactly the decoded size can be reused.  If decoding with the
+     * options throws an IllegalArgumentException, clear inBitmap and decode again.
+     *
+     * @param options Options with inSampleSize set.
+     * @param width   Width of the encoded image.
+     * @param height  Height of the encoded image.
+     */
+    public synchronized void setInBitmap(BitmapFactory.Options options, int width, int height) {
+        options.inMutable = true;
+        int sampleSize = Math.max(1, options.inSampleSize);
+        int sampledWidth = (width + sampleSize - 1) / sampleSize;
+        int sampledHeight = (height + sampleSize - 1) / sampleSize;
+        Bitmap.Config config = (options.inPreferredConfig == null) ? Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            if (sampleSize == 1) options.inBitmap = take(sampledWidth, sampledHeight, config);
+            return;
+        }
+        long needed = (long) sampledWidth * sampledHeight * getBytesPerPixel(config);
+        Iterator<Bitmap> iterator = mOrder.iterator();
+        while (iterator.hasNext()) {
+            Bitmap candidate = iterator.next();
+            if (candidate.getConfig() != config || candidate.getAllocationByteCount() < needed) continue;
+            iterator.remove();
+            mBuckets.get(getBucketKey(candidate.getWidth(), candidate.getHeight(), config)).remove(candidate);
+            mBytes -= getBytes(candidate);
+            options.inBitmap = candidate;
+            return;
+        }
+    }
+
+    /**
+     * Returns a bitmap nothing references anymore to the pool.  Immutable, recycled and oversized
+     * bitmaps are recycled instead.
+     *
+     * @param bitmap Bitmap to pool, or `null`.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        int bytes = getBytes(bitmap);
+        if (!bitmap.isMutable() || bitmap.getConfig() == null || bytes > mMaxBytes / 4) {
+            bitmap.recycle();
+            return;
+        }
+        String key = getBucketKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        ArrayDeque<Bitmap> bucket = mBuckets.get(key);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            mBuckets.put(key, bucket);
+        }
+        bucket.add(bitmap);
+        mOrder.add(bitmap);
+        mBytes += bytes;
+        trimToSize(mMaxBytes);
+    }
+
+    private synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bucket = mBuckets.get(getBucketKey(width, height, config));
+        if (bucket == null || bucket.isEmpty()) return null;
+        Bitmap bitmap = bucket.poll();
+        mOrder.remove(bitmap);
+        mBytes -= getBytes(bitmap);
+        return bitmap;
+    }
+
+    private synchronized void trimToSize(int maxBytes) {
+        while (mBytes > maxBytes && !mOrder.isEmpty()) {
+            Bitmap eldest = mOrder.removeFirst();
+            mBuckets.get(getBucketKey(eldest.getWidth(), eldest.getHeight(), eldest.getConfig())).remove(eldest);
+            mBytes -= getBytes(eldest);
+            eldest.recycle();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (Log.isLoggable(Log.VERBOSE)) {
+            Log.v("Trimming bitmap pool for memory level " + level);
+        }
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxBytes / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimToSize(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    private static String getBucketKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    private static int getBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) return bitmap.getAllocationByteCount();
+        return bitmap.getByteCount();
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
@@ -22,6 +23,19 @@ public class CircleTransform implements Transformation {
         int srcWidth = source.getWidth();
         int srcHeight = source.getHeight();
         float srcRadius = (float) Math.min(srcWidth, srcHeight) / 2f;
+
+        // Resized decodes are mutable: clear outside the circle in place instead of allocating
+        if (source.isMutable() && source.getConfig() == Bitmap.Config.ARGB_8888) {
+            source.setHasAlpha(true);
+            Path outside = new Path();
+            outside.addCircle(srcRadius, srcRadius, srcRadius, Path.Direction.CW);
+            outside.setFillType(Path.FillType.INVERSE_WINDING);
+            Paint clear = new Paint(Paint.ANTI_ALIAS_FLAG);
+            clear.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+            new Canvas(source).drawPath(outside, clear);
+            return source;
+        }
+
         Bitmap out = Bitmap.createBitmap(srcWidth, srcHeight, Bitmap.Config.ARGB_8888);
         Canvas canvas = new Canvas(out);
         final Paint paint = new Paint();
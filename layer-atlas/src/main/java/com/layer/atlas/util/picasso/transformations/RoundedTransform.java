@@ -3,6 +3,7 @@ package com.layer.atlas.util.picasso.transformations;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.RectF;
@@ -14,12 +15,14 @@ public class RoundedTransform implements Transformation {
     private final Paint mPaint;
     private final PorterDuffXfermode mShapeXferMode;
     private final PorterDuffXfermode mBitmapXferMode;
+    private final PorterDuffXfermode mClearXferMode;
 
     public RoundedTransform(float cornerRadius) {
         mCornerRadius = cornerRadius;
         mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         mShapeXferMode = null;
         mBitmapXferMode = new PorterDuffXfermode((PorterDuff.Mode.SRC_IN));
+        mClearXferMode = new PorterDuffXfermode(PorterDuff.Mode.CLEAR);
     }
 
     @Override
@@ -29,6 +32,19 @@ public class RoundedTransform implements Transformation {
 
         int width = source.getWidth();
         int height = source.getHeight();
+        RectF rect = new RectF(0, 0, width, height);
+
+        // Resized decodes are mutable: clear the corners in place instead of allocating
+        if (source.isMutable() && source.getConfig() == Bitmap.Config.ARGB_8888) {
+            source.setHasAlpha(true);
+            Path corners = new Path();
+            corners.addRoundRect(rect, mCornerRadius, mCornerRadius, Path.Direction.CW);
+            corners.setFillType(Path.FillType.INVERSE_WINDING);
+            Paint clear = new Paint(Paint.ANTI_ALIAS_FLAG);
+            clear.setXfermode(mClearXferMode);
+            new Canvas(source).drawPath(corners, clear);
+            return source;
+        }
 
         // Gif returns null config, must handle it
         Bitmap.Config config = source.getConfig();
@@ -36,7 +52,6 @@ public class RoundedTransform implements Transformation {
 
         Bitmap image = Bitmap.createBitmap(width, height, config);
         Canvas canvas = new Canvas(image);
-        RectF rect = new RectF(0, 0, width, height);
 
         mPaint.setXfermode(mShapeXferMode);
         canvas.drawRoundRect(rect, mCornerRadius, mCornerRadius, mPaint);